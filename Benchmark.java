@@ -0,0 +1,475 @@
+import java.io.*;
+import java.lang.management.*;
+import java.util.*;
+
+/*
+ * The Benchmark class.
+ * A benchmark driver for the Tray hot paths and for whole solves, run the
+ * way JMH runs its benchmarks: every benchmark gets warm-up iterations,
+ * whose results are dropped, then measured iterations. Each iteration
+ * repeats its operation for a fixed time and reports the average time per
+ * operation and the bytes allocated per operation (JMH's
+ * gc.alloc.rate.norm), read from the allocation counter of the calling
+ * thread. Results go into a sink so the JIT cannot drop the work.
+ *
+ * The Tray benchmarks work on hard.init and hard.goal, next to the corpus
+ * file. The solve benchmarks run every puzzle of the corpus file
+ * (bench/corpus by default) with each algorithm it lists, the parallel
+ * search with each thread count it lists, and then report the speedup
+ * and efficiency of each thread count over one thread. Reading the puzzle
+ * is setup and is neither timed nor counted. Allocation by other threads,
+ * such as the workers of -oalg 6, is not counted either.
+ *
+ * With -check, nothing is timed: the moves of the Tray benchmarks' puzzle
+ * and of boards wider than a slide's longest leg are checked instead, in
+ * every move mode, see checkMoves().
+ *
+ * Usage: java Benchmark [-warmup #] [-iterations #] [-time ms]
+ *        [-only regex] [-check] [corpus]
+ */
+class Benchmark
+{
+    /* Iterations and the length of each, see usage */
+    private static int WARMUP = 5;
+    private static int ITERATIONS = 10;
+    private static long ITERATION_NANOS = 500 * 1000000L;
+
+    /* Only benchmarks whose name matches are run */
+    private static String ONLY = ".*";
+
+    /* Check the moves instead of timing anything, see usage */
+    private static boolean CHECK = false;
+
+    /* Boards checked besides the puzzle, wider than a slide's longest leg */
+    private final static String[] WIDE_BOARDS = {
+        "2 66  1 1 0 0  1 1 1 65",
+        "3 70  1 1 0 0  2 2 1 68  1 2 2 30",
+    };
+
+    /* Operations run between two looks at the clock */
+    private final static int BATCH = 256;
+
+    private static long sink;
+
+    private final static com.sun.management.ThreadMXBean THREADS =
+        (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+
+    /*
+     * One benchmark: an operation, and the untimed setup it needs before
+     * each run.
+     */
+    private abstract static class Case
+    {
+        final String name;
+        final boolean perRun;
+
+        /*
+         * Constructor.
+         *
+         * @param name name of the benchmark.
+         * @param perRun true if setup() must be called before every run,
+         * false if once before the first.
+         */
+        Case(String name, boolean perRun)
+        {
+            this.name = name;
+            this.perRun = perRun;
+        }
+
+        void setup() throws Exception
+        {
+        }
+
+        /*
+         * Run the operation once and return a value depending on its work.
+         */
+        abstract long run() throws Exception;
+    }
+
+    /*
+     * Read a Tray from a config file.
+     *
+     * @param config path of the file.
+     * @param like Tray giving the dimensions, or null if the file has them.
+     */
+    private static Tray readTray(File config, Tray like) throws IOException
+    {
+        Scanner in = new Scanner(new BufferedReader(new FileReader(config)));
+
+        try {
+            return like == null ? new Tray(in)
+                : new Tray(like.getRows(), like.getCols(), in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /*
+     * Add the Tray benchmarks, on the puzzle in initial and goal.
+     */
+    private static void trayCases(List<Case> cases, File initial, File goal)
+        throws IOException
+    {
+        final Tray tray = readTray(initial, null);
+        tray.setGoal(readTray(goal, tray));
+
+        final int[] moves = new int[tray.maxMoves()];
+        final int count = tray.legalMoves(moves);
+        final Tray[] next = new Tray[count];
+        final Tray[] same = new Tray[count];
+        final long[] keys = new long[count * tray.keyWidth()];
+        for(int m=0; m<count; m++) {
+            next[m] = tray.moveBlock(moves[m]);
+            same[m] = new Tray(next[m]);
+            next[m].packKey(keys, m * tray.keyWidth());
+        }
+        final int[] cells = new int[tray.numBlocks()];
+        for(int i=0; i<cells.length; i++) {
+            cells[i] = tray.blockPosition(i);
+        }
+        final Tray scratch = new Tray(tray);
+        final int[] buffer = new int[tray.maxMoves()];
+
+        cases.add(new Case("tray.applyMove", false) {
+            int k;
+            long run() {
+                int undo = tray.applyMove(moves[k++ % count]);
+                tray.undoMove(undo);
+                return undo;
+            }
+        });
+        cases.add(new Case("tray.moveBlock", false) {
+            int k;
+            long run() {
+                return tray.moveBlock(moves[k++ % count]).longHash();
+            }
+        });
+        cases.add(new Case("tray.hashCode", false) {
+            int k;
+            long run() {
+                return next[k++ % count].hashCode();
+            }
+        });
+        cases.add(new Case("tray.equals", false) {
+            int k;
+            long run() {
+                int m = k++ % count;
+                return next[m].equals(same[m]) ? 1 : 0;
+            }
+        });
+        cases.add(new Case("tray.legalMoves", false) {
+            long run() {
+                return tray.legalMoves(buffer);
+            }
+        });
+        cases.add(new Case("tray.unpackKey", false) {
+            int k;
+            long run() {
+                scratch.unpackKey(keys, (k++ % count) * tray.keyWidth());
+                return scratch.longHash();
+            }
+        });
+        cases.add(new Case("tray.getBlock", false) {
+            int k;
+            long run() {
+                return tray.getBlock(k++ % cells.length + 1).getr();
+            }
+        });
+        cases.add(new Case("tray.getBlockAt", false) {
+            int k;
+            long run() {
+                int cell = cells[k++ % cells.length];
+                return tray.getBlock(cell / tray.getCols(), cell % tray.getCols())
+                    .getIndex();
+            }
+        });
+    }
+
+    /*
+     * Check every legal move of tray in every move mode: applying it then
+     * undoing it must give back the same board, and one of the legal moves
+     * of the board it leads to must lead back, since the searches from both
+     * ends and the external search walk moves backwards. That move need not
+     * be the undo code itself: of two paths to the same cell, legalMoves()
+     * only lists one.
+     * Returns the number of moves that fail, each printed to stderr.
+     *
+     * @param name name of the board in the messages.
+     * @param start the board to check.
+     */
+    private static int checkMoves(String name, Tray start)
+    {
+        long[] before = new long[start.keyWidth()];
+        long[] after = new long[start.keyWidth()];
+        int failures = 0;
+
+        for(int mode = Tray.STEPS; mode <= Tray.TURNS; mode++) {
+            Tray tray = new Tray(start);
+            tray.setMoveMode(mode);
+            tray.packKey(before, 0);
+            int[] moves = new int[tray.maxMoves()];
+            int[] back = new int[tray.maxMoves()];
+            int count = tray.legalMoves(moves);
+
+            for(int m=0; m<count; m++) {
+                String problem = null;
+                try {
+                    Tray child = new Tray(tray);
+                    int undo = child.applyMove(moves[m]);
+                    boolean reversible = false;
+                    for(int k = child.legalMoves(back) - 1; k >= 0 && !reversible; k--) {
+                        int forward = child.applyMove(back[k]);
+                        child.packKey(after, 0);
+                        reversible = Arrays.equals(before, after);
+                        child.undoMove(forward);
+                    }
+                    child.undoMove(undo);
+                    child.packKey(after, 0);
+                    if(!reversible) {
+                        problem = "cannot be reversed by a legal move";
+                    } else if(!Arrays.equals(before, after)) {
+                        problem = "is not undone";
+                    }
+                } catch(RuntimeException e) {
+                    problem = "throws " + e;
+                }
+                if(problem != null) {
+                    System.err.println(String.format("%s, mode %d: move %08x %s",
+                        name, mode, moves[m], problem));
+                    failures++;
+                }
+            }
+        }
+        return failures;
+    }
+
+    /*
+     * Add a solve benchmark for every puzzle and algorithm of a corpus
+     * file. Each line holds a name, the initial and goal configs (relative
+     * to the corpus file) and a comma separated list of algorithms. An
+     * algorithm written alg:threads runs on that many threads, and its
+     * benchmark is named after both, see scaling().
+     */
+    private static void solveCases(List<Case> cases, File corpus)
+        throws IOException
+    {
+        BufferedReader in = new BufferedReader(new FileReader(corpus));
+        File directory = corpus.getAbsoluteFile().getParentFile();
+
+        try {
+            for(String line = in.readLine(); line != null; line = in.readLine()) {
+                line = line.trim();
+                if(line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split("\\s+");
+                if(fields.length != 4) {
+                    throw new IOException("Bad corpus line: " + line);
+                }
+                final String initial = new File(directory, fields[1]).getPath();
+                final String goal = new File(directory, fields[2]).getPath();
+                for(String alg : fields[3].split(",")) {
+                    String[] parts = alg.split(":");
+                    final int algorithm = Integer.parseInt(parts[0]);
+                    final int threads = parts.length > 1 ? Integer.parseInt(parts[1]) : 0;
+                    String name = "solve." + fields[0] + ".alg" + parts[0]
+                        + (threads > 0 ? ".t" + threads : "");
+                    cases.add(new Case(name, true) {
+                        Solver game;
+                        void setup() {
+                            game = new Solver(initial, goal, algorithm, true);
+                            if(threads > 0) {
+                                game.setThreads(threads);
+                            }
+                        }
+                        long run() throws IOException {
+                            int length = game.search();
+                            if(length < 0) {
+                                throw new IOException(name + " found no solution");
+                            }
+                            return length + game.expanded();
+                        }
+                    });
+                }
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /*
+     * Run one iteration of a benchmark and return its average nanoseconds
+     * and bytes allocated per operation.
+     */
+    private static double[] iterate(Case c) throws Exception
+    {
+        long thread = Thread.currentThread().getId();
+        long nanos = 0, bytes = 0, ops = 0;
+
+        if(c.perRun) {
+            while(nanos < ITERATION_NANOS) {
+                c.setup();
+                long allocated = THREADS.getThreadAllocatedBytes(thread);
+                long began = System.nanoTime();
+                sink += c.run();
+                nanos += System.nanoTime() - began;
+                bytes += THREADS.getThreadAllocatedBytes(thread) - allocated;
+                ops++;
+            }
+        } else {
+            long allocated = THREADS.getThreadAllocatedBytes(thread);
+            long began = System.nanoTime();
+            while(nanos < ITERATION_NANOS) {
+                for(int k=0; k<BATCH; k++) {
+                    sink += c.run();
+                }
+                ops += BATCH;
+                nanos = System.nanoTime() - began;
+            }
+            bytes = THREADS.getThreadAllocatedBytes(thread) - allocated;
+        }
+        return new double[] {(double)nanos / ops, (double)bytes / ops};
+    }
+
+    /*
+     * Run a benchmark and print its line of results: the mean time per
+     * operation with its standard deviation over the iterations, and the
+     * mean bytes allocated per operation. Returns the mean time.
+     */
+    private static double measure(Case c) throws Exception
+    {
+        double[] time = new double[ITERATIONS];
+        double bytes = 0;
+
+        if(!c.perRun) {
+            c.setup();
+        }
+        for(int w=0; w<WARMUP; w++) {
+            iterate(c);
+        }
+        for(int i=0; i<ITERATIONS; i++) {
+            double[] result = iterate(c);
+            time[i] = result[0];
+            bytes += result[1] / ITERATIONS;
+        }
+
+        double mean = 0, deviation = 0;
+        for(double t : time) {
+            mean += t / time.length;
+        }
+        for(double t : time) {
+            deviation += (t - mean) * (t - mean) / Math.max(1, time.length - 1);
+        }
+        double scale = c.perRun ? 1e6 : 1;
+        System.out.println(String.format("%-24s %4d %14.3f +- %10.3f %6s %14.1f  B/op",
+            c.name, ITERATIONS, mean / scale, Math.sqrt(deviation) / scale,
+            c.perRun ? "ms/op" : "ns/op", bytes));
+        return mean;
+    }
+
+    /*
+     * Print the speedup and efficiency of every benchmark run on several
+     * threads (named .tN) over the same benchmark on one thread (.t1):
+     * speedup is the time on one thread over the time on N, and
+     * efficiency the speedup over N.
+     *
+     * @param means mean time of each benchmark that ran, by name.
+     */
+    private static void scaling(Map<String, Double> means)
+    {
+        boolean header = false;
+
+        for(Map.Entry<String, Double> entry : means.entrySet()) {
+            String name = entry.getKey();
+            int dot = name.lastIndexOf(".t");
+            if(dot < 0 || !name.substring(dot + 2).matches("\\d+")) {
+                continue;
+            }
+            int threads = Integer.parseInt(name.substring(dot + 2));
+            Double baseline = means.get(name.substring(0, dot) + ".t1");
+            if(threads == 1 || baseline == null) {
+                continue;
+            }
+            if(!header) {
+                System.out.println(String.format("%n%-24s %7s %10s", "Scaling",
+                    "Speedup", "Efficiency"));
+                header = true;
+            }
+            double speedup = baseline / entry.getValue();
+            System.out.println(String.format("%-24s %6.2fx %9.0f%%",
+                name, speedup, 100 * speedup / threads));
+        }
+    }
+
+    /**
+     * Program entry point.
+     */
+    public static void main(String[] args) throws Exception
+    {
+        File corpus = new File("bench", "corpus");
+
+        for(int index=0; index<args.length; index++) {
+            if(args[index].startsWith("-") && !args[index].equals("-check")
+                    && index + 1 == args.length) {
+                System.err.println("Missing value for " + args[index]);
+                System.exit(-1);
+            }
+            switch(args[index]) {
+                case "-warmup":
+                    WARMUP = Integer.parseInt(args[++index]);
+                    break;
+                case "-iterations":
+                    ITERATIONS = Math.max(1, Integer.parseInt(args[++index]));
+                    break;
+                case "-time":
+                    ITERATION_NANOS = Long.parseLong(args[++index]) * 1000000L;
+                    break;
+                case "-only":
+                    ONLY = args[++index];
+                    break;
+                case "-check":
+                    CHECK = true;
+                    break;
+                default:
+                    corpus = new File(args[index]);
+            }
+        }
+
+        if(CHECK) {
+            File directory = corpus.getAbsoluteFile().getParentFile();
+            int failures = checkMoves("hard.init",
+                readTray(new File(directory, "hard.init"), null));
+            for(String board : WIDE_BOARDS) {
+                failures += checkMoves(board, new Tray(new Scanner(board)));
+            }
+            System.out.println(failures == 0 ? "All moves check out"
+                : failures + " moves failed");
+            System.exit(failures == 0 ? 0 : -1);
+        }
+
+        if(!THREADS.isThreadAllocatedMemorySupported()) {
+            System.err.println("This JVM cannot count allocated bytes");
+            System.exit(-1);
+        }
+        THREADS.setThreadAllocatedMemoryEnabled(true);
+
+        ArrayList<Case> cases = new ArrayList<Case>();
+        File directory = corpus.getAbsoluteFile().getParentFile();
+        trayCases(cases, new File(directory, "hard.init"),
+            new File(directory, "hard.goal"));
+        solveCases(cases, corpus);
+
+        System.out.println(String.format("%-24s %4s %14s    %10s %6s %14s",
+            "Benchmark", "Cnt", "Score", "Error(sd)", "Units", "Alloc"));
+        Map<String, Double> means = new LinkedHashMap<String, Double>();
+        for(Case c : cases) {
+            if(c.name.matches(ONLY)) {
+                means.put(c.name, measure(c));
+            }
+        }
+        scaling(means);
+        if(sink == 42) {
+            System.out.println();
+        }
+    }
+}
@@ -0,0 +1,140 @@
+import java.util.*;
+
+/*
+ * The BloomStateStore class.
+ * An approximate set of packed state keys: a Bloom filter of a fixed number
+ * of bits, with a fixed number of bit positions per key derived from one 64
+ * bit hash by double hashing. Its memory never grows, whatever the number
+ * of states added.
+ *
+ * There are no false negatives, but contains() and add() may report a new
+ * state as already present. That probability is about fill()^hashes, and
+ * falsePositiveRate() reports it as the filter fills up.
+ */
+class BloomStateStore implements StateStore
+{
+    private final int width;
+    private final int hashes;
+    private final long[] bits;
+    private final long mask;
+    private long setBits;
+    private int size;
+
+    /*
+     * Constructor.
+     *
+     * @param width number of longs in each key.
+     * @param bytes memory to use. Rounded down to a power of two, at least
+     * 8 bytes.
+     * @param hashes number of bits set per key.
+     * @throws IllegalArgumentException if a parameter is out of range.
+     */
+    public BloomStateStore(int width, long bytes, int hashes)
+        throws IllegalArgumentException
+    {
+        if(width < 1 || bytes < 8 || hashes < 1) {
+            throw new IllegalArgumentException(
+                "Bad Bloom filter parameters: width " + width + ", bytes "
+                + bytes + ", hashes " + hashes);
+        }
+        long words = Math.min(Long.highestOneBit(bytes / 8), 1L << 30);
+
+        this.width = width;
+        this.hashes = hashes;
+        bits = new long[(int)words];
+        mask = words * 64 - 1;
+    }
+
+    /*
+     * 64 bit hash of the key.
+     */
+    private long hash(long[] key, int offset)
+    {
+        long h = 0x9E3779B97F4A7C15L;
+
+        for(int i=0; i<width; i++) {
+            h = (h ^ key[offset + i]) * 0xBF58476D1CE4E5B9L;
+            h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+            h ^= h >>> 31;
+        }
+        return h;
+    }
+
+    @Override
+    public boolean add(long[] key, int offset)
+    {
+        long h = hash(key, offset);
+        long step = (h >>> 32) | 1;
+        boolean added = false;
+
+        for(int k=0; k<hashes; k++, h += step) {
+            long bit = h & mask;
+            long word = bits[(int)(bit >>> 6)];
+            if((word & (1L << bit)) == 0) {
+                bits[(int)(bit >>> 6)] = word | (1L << bit);
+                setBits++;
+                added = true;
+            }
+        }
+        if(added) {
+            size++;
+        }
+        return added;
+    }
+
+    @Override
+    public boolean contains(long[] key, int offset)
+    {
+        long h = hash(key, offset);
+        long step = (h >>> 32) | 1;
+
+        for(int k=0; k<hashes; k++, h += step) {
+            long bit = h & mask;
+            if((bits[(int)(bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Return the fraction of bits set, between 0 and 1.
+     */
+    public double fill()
+    {
+        return (double)setBits / (mask + 1);
+    }
+
+    /*
+     * Return the current probability that a new state is reported as
+     * already present.
+     */
+    public double falsePositiveRate()
+    {
+        return Math.pow(fill(), hashes);
+    }
+
+    /*
+     * Return the number of states added, not counting those that were
+     * reported as present.
+     */
+    @Override
+    public int size()
+    {
+        return size;
+    }
+
+    @Override
+    public long footprint()
+    {
+        return 8L * bits.length;
+    }
+
+    @Override
+    public void clear()
+    {
+        Arrays.fill(bits, 0);
+        setBits = 0;
+        size = 0;
+    }
+}
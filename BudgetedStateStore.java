@@ -0,0 +1,128 @@
+/*
+ * The BudgetedStateStore class.
+ * A set of packed state keys that never holds more than a given number of
+ * bytes. States go into an exact OpenStateStore until its next resize would
+ * pass the budget. From then on the exact store is frozen and new states go
+ * into a BloomStateStore filling the rest of the budget, so the search keeps
+ * running instead of exhausting the heap, at the price of sometimes taking
+ * a new state for one already seen. Part of the budget can be reserved for
+ * memory the search holds besides the store, see reserve().
+ *
+ * @see BloomStateStore
+ */
+class BudgetedStateStore implements StateStore
+{
+    /* Bits set per key once the store is approximate. */
+    private final static int BLOOM_HASHES = 5;
+
+    private final int width;
+    private final long budget;
+    private final float loadFactor;
+    private long reserved;
+    private OpenStateStore exact;
+    private BloomStateStore approximate;
+
+    /*
+     * Constructor.
+     *
+     * @param width number of longs in each key.
+     * @param budget maximum number of bytes to hold.
+     * @param loadFactor load factor of the exact store.
+     * @throws IllegalArgumentException if a parameter is out of range.
+     */
+    public BudgetedStateStore(int width, long budget, float loadFactor)
+        throws IllegalArgumentException
+    {
+        this.width = width;
+        this.budget = budget;
+        this.loadFactor = loadFactor;
+        exact = new OpenStateStore(width, 16, loadFactor, 2);
+        if(exact.footprint() > budget) {
+            throw new IllegalArgumentException(
+                "Memory budget of " + budget + " bytes is too small");
+        }
+    }
+
+    @Override
+    public boolean add(long[] key, int offset)
+    {
+        if(approximate == null) {
+            if(exact.contains(key, offset)) {
+                return false;
+            }
+            if(exact.peakFootprint() + reserved <= budget) {
+                return exact.add(key, offset);
+            }
+            approximate = new BloomStateStore(width,
+                Math.max(8, budget - reserved - exact.footprint()), BLOOM_HASHES);
+            Log.warn("Memory budget reached after " + exact.size()
+                + " states, switching to a "
+                + (approximate.footprint() / 1024) + " KB Bloom filter");
+        }
+        return !exact.contains(key, offset) && approximate.add(key, offset);
+    }
+
+    @Override
+    public boolean contains(long[] key, int offset)
+    {
+        return exact.contains(key, offset)
+            || (approximate != null && approximate.contains(key, offset));
+    }
+
+    /*
+     * Leave bytes of the budget to the rest of the search, such as its
+     * stack. Takes effect when the exact store next grows; a Bloom filter
+     * already made keeps its size.
+     *
+     * @param bytes bytes of the budget held outside the store.
+     */
+    public void reserve(long bytes)
+    {
+        reserved = bytes;
+    }
+
+    /*
+     * Returns true once new states are kept in the Bloom filter.
+     */
+    public boolean isApproximate()
+    {
+        return approximate != null;
+    }
+
+    /*
+     * Return the fraction of Bloom filter bits set, 0 while exact.
+     */
+    public double fill()
+    {
+        return approximate == null ? 0 : approximate.fill();
+    }
+
+    /*
+     * Return the probability that a new state is taken for one already
+     * seen, 0 while exact.
+     */
+    public double falsePositiveRate()
+    {
+        return approximate == null ? 0 : approximate.falsePositiveRate();
+    }
+
+    @Override
+    public int size()
+    {
+        return exact.size() + (approximate == null ? 0 : approximate.size());
+    }
+
+    @Override
+    public long footprint()
+    {
+        return exact.footprint()
+            + (approximate == null ? 0 : approximate.footprint());
+    }
+
+    @Override
+    public void clear()
+    {
+        exact = new OpenStateStore(width, 16, loadFactor, 2);
+        approximate = null;
+    }
+}
@@ -0,0 +1,291 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/*
+ * The Checkpoint class.
+ * A snapshot of a depth first search, enough to carry on from where it was
+ * taken: the packed key of the starting Tray, the search stack (for every
+ * depth its move list and the next move to try) and the visited states.
+ * Neither the Tray nor the keys and undo moves of the stack are saved,
+ * they are rebuilt by replaying the path of the stack from the start.
+ *
+ * The visited states only ever grow, so they are not copied at each
+ * checkpoint: the search keeps a Journal of the keys it adds, and a
+ * Checkpoint only takes the keys added since the one before. Writing it
+ * appends them to a key log next to the checkpoint file (file.keys), then
+ * replaces the checkpoint file, which records how many keys of the log it
+ * covers. Reading it back replays those keys into a fresh visited store,
+ * and drops whatever a checkpoint that did not finish appended after them.
+ *
+ * A Checkpoint owns copies of everything it holds, so it can be written on
+ * another thread while the search goes on. The file format is a
+ * DataOutputStream dump in the order of the fields below, behind a magic
+ * number and a version; the key log is the keys, one after the other.
+ */
+class Checkpoint
+{
+    private final static int MAGIC = 0x426C6B43;
+    private final static int VERSION = 4;
+
+    final long[] start;
+    final long expanded;
+    final long tried;
+    final int span, depth;
+    final int[] count, cursor, moves;
+    final long states;
+    private final long[] added;
+
+    /*
+     * Constructor. The arrays are kept, not copied.
+     *
+     * @param start packed key of the starting Tray.
+     * @param expanded number of states expanded so far.
+     * @param tried number of moves tried so far.
+     * @param span size of the move list of each depth.
+     * @param depth current depth of the search.
+     * @param count number of moves of each depth 0..depth.
+     * @param cursor index of the next move to try at each depth.
+     * @param moves move lists of depths 0..depth, one after the other.
+     * @param states number of visited states, in the key log once written.
+     * @param added keys of the visited states added since the last
+     * Checkpoint, from a Journal, or null for one that was read.
+     */
+    Checkpoint(long[] start, long expanded, long tried, int span, int depth,
+            int[] count, int[] cursor, int[] moves, long states, long[] added)
+    {
+        this.start = start;
+        this.expanded = expanded;
+        this.tried = tried;
+        this.span = span;
+        this.depth = depth;
+        this.count = count;
+        this.cursor = cursor;
+        this.moves = moves;
+        this.states = states;
+        this.added = added;
+    }
+
+    /*
+     * Return the key log of a checkpoint file.
+     */
+    static File keyLog(File file)
+    {
+        return new File(file.getPath() + ".keys");
+    }
+
+    /*
+     * Write this Checkpoint to file: append the keys added since the last
+     * one to the key log, then write the rest to a temporary file moved
+     * over file, so file always holds a whole checkpoint.
+     *
+     * @param file where to write.
+     * @throws IOException if the file cannot be written.
+     */
+    void write(File file) throws IOException
+    {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+            new FileOutputStream(keyLog(file), true), 1 << 16));
+
+        try {
+            for(long word : added) {
+                out.writeLong(word);
+            }
+        } finally {
+            out.close();
+        }
+
+        File temporary = new File(file.getPath() + ".tmp");
+        out = new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(temporary), 1 << 16));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(start.length);
+            for(long word : start) {
+                out.writeLong(word);
+            }
+            out.writeLong(expanded);
+            out.writeLong(tried);
+            out.writeInt(span);
+            out.writeInt(depth);
+            for(int d=0, at=0; d<=depth; at+=count[d++]) {
+                out.writeInt(count[d]);
+                out.writeInt(cursor[d]);
+                for(int m=0; m<count[d]; m++) {
+                    out.writeInt(moves[at + m]);
+                }
+            }
+            out.writeLong(states);
+        } finally {
+            out.close();
+        }
+        Files.move(temporary.toPath(), file.toPath(),
+            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /*
+     * Read a Checkpoint written by write(). Its visited states are left in
+     * the key log, see restore().
+     *
+     * @param file where to read from.
+     * @throws IOException if the file cannot be read or is not a checkpoint.
+     */
+    static Checkpoint read(File file) throws IOException
+    {
+        DataInputStream in = new DataInputStream(
+            new BufferedInputStream(new FileInputStream(file), 1 << 16));
+
+        try {
+            if(in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException(file + " is not a checkpoint");
+            }
+            long[] start = new long[in.readInt()];
+            for(int w=0; w<start.length; w++) {
+                start[w] = in.readLong();
+            }
+            long expanded = in.readLong();
+            long tried = in.readLong();
+            int span = in.readInt();
+            int depth = in.readInt();
+            if(depth < 0 || span < 0) {
+                throw new IOException(file + " is corrupt");
+            }
+
+            int[] count = new int[depth + 1];
+            int[] cursor = new int[depth + 1];
+            int[] moves = new int[1024];
+            int at = 0;
+            for(int d=0; d<=depth; d++) {
+                count[d] = in.readInt();
+                cursor[d] = in.readInt();
+                if(count[d] < 0 || count[d] > span
+                        || cursor[d] < (d < depth ? 1 : 0) || cursor[d] > count[d]) {
+                    throw new IOException(file + " is corrupt");
+                }
+                if(at + count[d] > moves.length) {
+                    moves = Arrays.copyOf(moves, 2 * moves.length + count[d]);
+                }
+                for(int m=0; m<count[d]; m++) {
+                    moves[at++] = in.readInt();
+                }
+            }
+            moves = Arrays.copyOf(moves, at);
+            long states = in.readLong();
+            if(states < 0) {
+                throw new IOException(file + " is corrupt");
+            }
+            return new Checkpoint(start, expanded, tried, span, depth, count,
+                cursor, moves, states, null);
+        } finally {
+            in.close();
+        }
+    }
+
+    /*
+     * Add the visited states of this Checkpoint, read from the key log of
+     * file, to memory, and cut the log after them. If target is another
+     * checkpoint file, its key log starts as a copy of them instead, so
+     * the checkpoints of the resumed search can append to it.
+     *
+     * @param file the checkpoint file this Checkpoint was read from.
+     * @param target the checkpoint file the search will write to, or null.
+     * @param memory an empty visited store.
+     * @throws IOException if the key log is missing or too short.
+     */
+    void restore(File file, File target, StateStore memory) throws IOException
+    {
+        File log = keyLog(file);
+        long bytes = 8 * states * start.length;
+        long[] key = new long[start.length];
+
+        if(log.length() < bytes) {
+            throw new IOException(log + " is missing visited states");
+        }
+        DataInputStream in = new DataInputStream(
+            new BufferedInputStream(new FileInputStream(log), 1 << 16));
+        try {
+            for(long n=0; n<states; n++) {
+                for(int w=0; w<key.length; w++) {
+                    key[w] = in.readLong();
+                }
+                memory.add(key, 0);
+            }
+        } finally {
+            in.close();
+        }
+
+        if(target != null && !target.getAbsoluteFile().equals(file.getAbsoluteFile())) {
+            Files.copy(log.toPath(), keyLog(target).toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+            log = keyLog(target);
+        }
+        RandomAccessFile cut = new RandomAccessFile(log, "rw");
+        try {
+            cut.setLength(bytes);
+        } finally {
+            cut.close();
+        }
+    }
+
+    /*
+     * The keys a search adds to its visited store, kept until a Checkpoint
+     * takes them. Search thread only.
+     */
+    static class Journal
+    {
+        private final int width;
+        private long[] keys;
+        private int size;
+        private long states;
+
+        /*
+         * Constructor.
+         *
+         * @param width number of longs in each key.
+         * @param states number of states already in the key log.
+         */
+        Journal(int width, long states)
+        {
+            this.width = width;
+            this.states = states;
+            keys = new long[1024 * width];
+        }
+
+        /*
+         * Record a key added to the visited store.
+         *
+         * @param key array holding the packed key.
+         * @param offset index of the first word of the key in key.
+         */
+        void add(long[] key, int offset)
+        {
+            if((size + 1) * width > keys.length) {
+                keys = Arrays.copyOf(keys, 2 * keys.length);
+            }
+            System.arraycopy(key, offset, keys, size * width, width);
+            size++;
+        }
+
+        /*
+         * Return the number of states recorded since the search began,
+         * counting those in the key log when it was resumed.
+         */
+        long states()
+        {
+            return states + size;
+        }
+
+        /*
+         * Return the keys recorded since the last call and forget them.
+         */
+        long[] drain()
+        {
+            long[] drained = Arrays.copyOf(keys, size * width);
+
+            states += size;
+            size = 0;
+            return drained;
+        }
+    }
+}
@@ -0,0 +1,438 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+
+/*
+ * The DiskFrontier class.
+ * The levels of a breadth-first search kept on disk, for state spaces that
+ * do not fit in memory. Each level is a file of packed state keys, width
+ * longs each, sorted and free of duplicates.
+ *
+ * The states of the next level are collected in a fixed size buffer. When
+ * it fills up it is sorted and written out as a run. finishLevel() then
+ * merges the runs into the next level file, dropping every state that is
+ * also in the current or the previous level. Single cell moves can be taken
+ * back, so a child is never further than one level from its parent and
+ * those two levels are all that need checking (delayed duplicate
+ * detection). All reads and writes are sequential through NIO channels,
+ * except for the binary searches of contains(), used to walk a solution
+ * back to the start.
+ *
+ * Every file lives in a fresh directory under the scratch directory, which
+ * close() deletes.
+ */
+class DiskFrontier implements Closeable
+{
+    /* Size of the buffer of each open channel. */
+    private final static int BUFFER_BYTES = 1 << 16;
+
+    private final int width;
+    private final File directory;
+    private final long[] run;
+    private int runSize;
+    private final ArrayList<File> runs = new ArrayList<File>();
+    private final ArrayList<File> levels = new ArrayList<File>();
+    private long bytesRead, bytesWritten, ioNanos;
+
+    /*
+     * Constructor.
+     *
+     * @param scratch directory to keep the level files under.
+     * @param width number of longs in each key.
+     * @param runStates number of states buffered in memory before a sorted
+     * run is written out.
+     * @throws IOException if the scratch directory cannot be used.
+     */
+    public DiskFrontier(File scratch, int width, int runStates)
+        throws IOException
+    {
+        this.width = width;
+        run = new long[Math.max(1, runStates) * width];
+        directory =
+            Files.createTempDirectory(scratch.toPath(), "blocks-").toFile();
+    }
+
+    /*
+     * Return the number of levels finished so far.
+     */
+    public int levels()
+    {
+        return levels.size();
+    }
+
+    /*
+     * Add a state to the level being built.
+     *
+     * @param key array holding the packed key.
+     * @param offset index of the first word of the key in key.
+     * @throws IOException if a run cannot be written.
+     */
+    public void add(long[] key, int offset) throws IOException
+    {
+        System.arraycopy(key, offset, run, runSize * width, width);
+        if(++runSize * width == run.length) {
+            spill();
+        }
+    }
+
+    /*
+     * Sort the buffered states and write them out as a run.
+     */
+    private void spill() throws IOException
+    {
+        File file = new File(directory, "run-" + runs.size() + ".keys");
+        KeyWriter out = new KeyWriter(file);
+
+        sort(0, runSize - 1);
+        for(int i=0; i<runSize; i++) {
+            if(i == 0 || order(run, i * width, run, (i-1) * width) != 0) {
+                out.write(run, i * width);
+            }
+        }
+        out.close();
+        runs.add(file);
+        runSize = 0;
+    }
+
+    /*
+     * Merge the states added since the last call into a new level, without
+     * duplicates and without the states of the last two finished levels.
+     * Returns the number of states in the new level.
+     *
+     * @throws IOException if a file cannot be read or written.
+     */
+    public long finishLevel() throws IOException
+    {
+        if(runSize > 0) {
+            spill();
+        }
+        PriorityQueue<KeyReader> merge = new PriorityQueue<KeyReader>(
+            Math.max(1, runs.size()), new Comparator<KeyReader>() {
+                public int compare(KeyReader a, KeyReader b) {
+                    return order(a.key, 0, b.key, 0);
+                }
+            });
+        ArrayList<KeyReader> older = new ArrayList<KeyReader>();
+        File file = new File(directory, "level-" + levels.size() + ".keys");
+        KeyWriter out = new KeyWriter(file);
+        long[] last = new long[width];
+        long count = 0;
+
+        for(File runFile : runs) {
+            KeyReader in = new KeyReader(runFile);
+            if(in.advance()) {
+                merge.add(in);
+            } else {
+                in.close();
+            }
+        }
+        for(int l = Math.max(0, levels.size() - 2); l < levels.size(); l++) {
+            KeyReader in = new KeyReader(levels.get(l));
+            if(in.advance()) {
+                older.add(in);
+            } else {
+                in.close();
+            }
+        }
+
+        while(!merge.isEmpty()) {
+            KeyReader in = merge.poll();
+            boolean fresh = count == 0 || order(in.key, 0, last, 0) != 0;
+
+            for(KeyReader seen : older) {
+                while(seen.key != null && order(seen.key, 0, in.key, 0) < 0) {
+                    seen.advance();
+                }
+                fresh = fresh
+                    && (seen.key == null || order(seen.key, 0, in.key, 0) != 0);
+            }
+            if(fresh) {
+                out.write(in.key, 0);
+                System.arraycopy(in.key, 0, last, 0, width);
+                count++;
+            }
+            if(in.advance()) {
+                merge.add(in);
+            } else {
+                in.close();
+            }
+        }
+        for(KeyReader seen : older) {
+            seen.close();
+        }
+        out.close();
+
+        for(File runFile : runs) {
+            runFile.delete();
+        }
+        runs.clear();
+        levels.add(file);
+        return count;
+    }
+
+    /*
+     * Open a sequential reader over a finished level.
+     *
+     * @param level index of the level, from 0.
+     * @throws IOException if the level file cannot be opened.
+     */
+    public KeyReader open(int level) throws IOException
+    {
+        return new KeyReader(levels.get(level));
+    }
+
+    /*
+     * Returns true if a finished level holds the given state, by binary
+     * search over the level file.
+     *
+     * @param level index of the level, from 0.
+     * @param key array holding the packed key.
+     * @param offset index of the first word of the key in key.
+     * @throws IOException if the level file cannot be read.
+     */
+    public boolean contains(int level, long[] key, int offset)
+        throws IOException
+    {
+        FileChannel channel =
+            FileChannel.open(levels.get(level).toPath(), StandardOpenOption.READ);
+        ByteBuffer record = ByteBuffer.allocate(8 * width);
+        long[] probe = new long[width];
+
+        try {
+            long low = 0;
+            long high = channel.size() / record.capacity() - 1;
+            while(low <= high) {
+                long middle = (low + high) >>> 1;
+                long began = System.nanoTime();
+                record.clear();
+                while(record.hasRemaining()) {
+                    channel.read(record, middle * record.capacity() + record.position());
+                }
+                ioNanos += System.nanoTime() - began;
+                bytesRead += record.capacity();
+                record.flip();
+                for(int i=0; i<width; i++) {
+                    probe[i] = record.getLong();
+                }
+                int sign = order(probe, 0, key, offset);
+                if(sign == 0) {
+                    return true;
+                } else if(sign < 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            return false;
+        } finally {
+            channel.close();
+        }
+    }
+
+    /*
+     * Return the number of bytes read from disk so far.
+     */
+    public long bytesRead()
+    {
+        return bytesRead;
+    }
+
+    /*
+     * Return the number of bytes written to disk so far.
+     */
+    public long bytesWritten()
+    {
+        return bytesWritten;
+    }
+
+    /*
+     * Return the time spent waiting on disk so far, in nanoseconds.
+     */
+    public long ioNanos()
+    {
+        return ioNanos;
+    }
+
+    /*
+     * Delete every file and the scratch directory.
+     */
+    @Override
+    public void close()
+    {
+        for(File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    /*
+     * Compare two keys word by word.
+     */
+    private int order(long[] a, int aOffset, long[] b, int bOffset)
+    {
+        for(int i=0; i<width; i++) {
+            if(a[aOffset + i] != b[bOffset + i]) {
+                return a[aOffset + i] < b[bOffset + i] ? -1 : 1;
+            }
+        }
+        return 0;
+    }
+
+    /*
+     * Quicksort the buffered keys from record lo to record hi inclusive.
+     */
+    private void sort(int lo, int hi)
+    {
+        if(width == 1) {
+            Arrays.sort(run, lo, hi + 1);
+            return;
+        }
+        long[] pivot = new long[width];
+
+        while(lo < hi) {
+            System.arraycopy(run, ((lo + hi) >>> 1) * width, pivot, 0, width);
+            int i = lo, j = hi;
+            while(i <= j) {
+                while(compareRecord(i, pivot) < 0) {
+                    i++;
+                }
+                while(compareRecord(j, pivot) > 0) {
+                    j--;
+                }
+                if(i <= j) {
+                    swap(i++, j--);
+                }
+            }
+            if(j - lo < hi - i) {
+                sort(lo, j);
+                lo = i;
+            } else {
+                sort(i, hi);
+                hi = j;
+            }
+        }
+    }
+
+    /*
+     * Compare buffered record i with key.
+     */
+    private int compareRecord(int i, long[] key)
+    {
+        for(int k=0; k<width; k++) {
+            if(run[i * width + k] != key[k]) {
+                return run[i * width + k] < key[k] ? -1 : 1;
+            }
+        }
+        return 0;
+    }
+
+    /*
+     * Swap buffered records i and j.
+     */
+    private void swap(int i, int j)
+    {
+        for(int k=0; k<width; k++) {
+            long word = run[i * width + k];
+            run[i * width + k] = run[j * width + k];
+            run[j * width + k] = word;
+        }
+    }
+
+    /*
+     * Sequential reader over a file of keys. key holds the current key
+     * after advance() returned true, and is null once the file is done.
+     */
+    class KeyReader implements Closeable
+    {
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+        long[] key = new long[width];
+
+        KeyReader(File file) throws IOException
+        {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+            buffer.flip();
+        }
+
+        /*
+         * Read the next key. Returns false at the end of the file.
+         */
+        boolean advance() throws IOException
+        {
+            if(buffer.remaining() < 8 * width) {
+                buffer.compact();
+                long began = System.nanoTime();
+                int read = 0;
+                while(read >= 0 && buffer.position() < 8 * width) {
+                    read = channel.read(buffer);
+                    bytesRead += Math.max(0, read);
+                }
+                ioNanos += System.nanoTime() - began;
+                buffer.flip();
+                if(buffer.remaining() < 8 * width) {
+                    key = null;
+                    close();
+                    return false;
+                }
+            }
+            for(int i=0; i<width; i++) {
+                key[i] = buffer.getLong();
+            }
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            channel.close();
+        }
+    }
+
+    /*
+     * Buffered sequential writer of a file of keys.
+     */
+    private class KeyWriter implements Closeable
+    {
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+
+        KeyWriter(File file) throws IOException
+        {
+            channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+            buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+        }
+
+        void write(long[] key, int offset) throws IOException
+        {
+            if(buffer.remaining() < 8 * width) {
+                flush();
+            }
+            for(int i=0; i<width; i++) {
+                buffer.putLong(key[offset + i]);
+            }
+        }
+
+        private void flush() throws IOException
+        {
+            long began = System.nanoTime();
+            buffer.flip();
+            while(buffer.hasRemaining()) {
+                bytesWritten += channel.write(buffer);
+            }
+            buffer.clear();
+            ioNanos += System.nanoTime() - began;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            flush();
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,243 @@
+import java.util.*;
+
+/*
+ * The Feasibility class.
+ * Checks run on a puzzle before the search, each of which can prove the
+ * goal unreachable in time linear in the size of the Trays, where the
+ * search would only find out after exhausting every reachable state:
+ *
+ *  - Both Trays must be valid: every Block inside the Tray and no two
+ *    Blocks overlapping.
+ *  - Blocks keep their shape, so the goal cannot ask for more Blocks of a
+ *    shape than the starting Tray has.
+ *  - The number of empty cells E never changes. Moving a Block sideways
+ *    takes as many empty cells as it is high, and moving it up or down as
+ *    many as it is wide, so a Block higher than E never changes column and
+ *    one wider than E never changes row.
+ *  - A Block as high as the Tray is a wall no other Block can get past,
+ *    and walls cannot pass each other. When the goal places every wall,
+ *    each stretch between two walls must ask for no more Blocks of a shape
+ *    than it holds at the start. Likewise for Blocks as wide as the Tray.
+ *  - A starting Tray that is not the goal must have a legal move.
+ *
+ * Single cell moves keep no parity: any Block can take one step and back,
+ * and same shaped Blocks are interchangeable, so none is checked.
+ */
+class Feasibility
+{
+    private Feasibility()
+    {
+    }
+
+    /*
+     * Return why the goal cannot be reached from start, or null if none of
+     * the checks rules it out, which does not mean that it can be.
+     *
+     * @param start the starting Tray, with setGoal() called on it.
+     * @param goal the goal Tray, possibly naming only some Blocks.
+     */
+    static String whyUnreachable(Tray start, Tray goal)
+    {
+        String problem = start.problem();
+        if(problem != null) {
+            return "the initial tray is invalid: " + problem;
+        }
+        problem = goal.problem();
+        if(problem != null) {
+            return "the goal is invalid: " + problem;
+        }
+
+        Map<String, Integer> have = shapeCounts(start);
+        for(Map.Entry<String, Integer> need : shapeCounts(goal).entrySet()) {
+            int count = have.containsKey(need.getKey()) ? have.get(need.getKey()) : 0;
+            if(need.getValue() > count) {
+                return "the goal has " + need.getValue() + " blocks of "
+                    + need.getKey() + " but the initial tray has " + count;
+            }
+        }
+
+        problem = checkFrozen(start, goal);
+        if(problem == null) {
+            problem = checkWalls(start, goal, true);
+        }
+        if(problem == null) {
+            problem = checkWalls(start, goal, false);
+        }
+        if(problem == null && !start.isGoal()
+                && start.legalMoves(new int[start.maxMoves()]) == 0) {
+            problem = "no block of the initial tray can move";
+        }
+        return problem;
+    }
+
+    /*
+     * Return the number of Blocks of each shape, keyed "rowsxcols".
+     */
+    private static Map<String, Integer> shapeCounts(Tray tray)
+    {
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+
+        for(int i=0; i<tray.numBlocks(); i++) {
+            counts.merge(shape(tray, i), 1, Integer::sum);
+        }
+        return counts;
+    }
+
+    private static String shape(Tray tray, int i)
+    {
+        return tray.blockRows(i) + "x" + tray.blockCols(i);
+    }
+
+    private static String cell(Tray tray, int i)
+    {
+        return "(" + tray.blockPosition(i) / tray.getCols() + ","
+            + tray.blockPosition(i) % tray.getCols() + ")";
+    }
+
+    /*
+     * Check the goal Blocks that can never change row, column or both
+     * against where their shape sits in the starting Tray.
+     */
+    private static String checkFrozen(Tray start, Tray goal)
+    {
+        int empty = start.getRows() * start.getCols();
+        for(int i=0; i<start.numBlocks(); i++) {
+            empty -= start.blockRows(i) * start.blockCols(i);
+        }
+
+        Map<String, Integer> left = new HashMap<String, Integer>();
+        for(int i=0; i<start.numBlocks(); i++) {
+            String key = frozenKey(start, i, empty);
+            if(key != null) {
+                left.merge(key, 1, Integer::sum);
+            }
+        }
+        for(int j=0; j<goal.numBlocks(); j++) {
+            String key = frozenKey(goal, j, empty);
+            if(key == null) {
+                continue;
+            }
+            Integer count = left.get(key);
+            if(count == null || count == 0) {
+                boolean sideways = goal.blockRows(j) > empty;
+                boolean upDown = goal.blockCols(j) > empty;
+                return "with " + empty + " empty cells a " + shape(goal, j)
+                    + " block can never move"
+                    + (sideways && upDown ? "" : sideways ? " sideways" : " up or down")
+                    + ", so none can reach " + cell(goal, j);
+            }
+            left.put(key, count - 1);
+        }
+        return null;
+    }
+
+    /*
+     * Return the shape of Block i and the coordinates it can never leave,
+     * or null if it can reach every row and column.
+     */
+    private static String frozenKey(Tray tray, int i, int empty)
+    {
+        boolean fixedCol = tray.blockRows(i) > empty;
+        boolean fixedRow = tray.blockCols(i) > empty;
+
+        if(!fixedCol && !fixedRow) {
+            return null;
+        }
+        return shape(tray, i)
+            + (fixedRow ? " row " + tray.blockPosition(i) / tray.getCols() : "")
+            + (fixedCol ? " col " + tray.blockPosition(i) % tray.getCols() : "");
+    }
+
+    /*
+     * Check the stretches between walls, Blocks as high as the Tray if
+     * vertical is true, as wide as it otherwise.
+     */
+    private static String checkWalls(Tray start, Tray goal, boolean vertical)
+    {
+        List<Integer> startWalls = walls(start, vertical);
+        List<Integer> goalWalls = walls(goal, vertical);
+
+        if(startWalls.isEmpty() || goalWalls.size() != startWalls.size()) {
+            return null;
+        }
+        for(int w=0; w<startWalls.size(); w++) {
+            String was = shape(start, startWalls.get(w));
+            String is = shape(goal, goalWalls.get(w));
+            if(!was.equals(is)) {
+                return "walls cannot pass each other, but the goal puts a "
+                    + is + " wall where a " + was + " one must be";
+            }
+        }
+
+        List<Map<String, Integer>> stretches = new ArrayList<Map<String, Integer>>();
+        for(int w=0; w<=startWalls.size(); w++) {
+            stretches.add(new HashMap<String, Integer>());
+        }
+        for(int i=0; i<start.numBlocks(); i++) {
+            if(!startWalls.contains(i)) {
+                stretches.get(stretch(start, startWalls, i, vertical))
+                    .merge(shape(start, i), 1, Integer::sum);
+            }
+        }
+        for(int j=0; j<goal.numBlocks(); j++) {
+            if(goalWalls.contains(j)) {
+                continue;
+            }
+            Map<String, Integer> stretch =
+                stretches.get(stretch(goal, goalWalls, j, vertical));
+            Integer count = stretch.get(shape(goal, j));
+            if(count == null || count == 0) {
+                return "no " + shape(goal, j) + " block can get past the "
+                    + (vertical ? "full height" : "full width")
+                    + " blocks to reach " + cell(goal, j);
+            }
+            stretch.put(shape(goal, j), count - 1);
+        }
+        return null;
+    }
+
+    /*
+     * Return the indices of the walls of tray, in order along the Tray.
+     */
+    private static List<Integer> walls(Tray tray, boolean vertical)
+    {
+        List<Integer> walls = new ArrayList<Integer>();
+
+        for(int i=0; i<tray.numBlocks(); i++) {
+            if(vertical ? tray.blockRows(i) == tray.getRows()
+                    : tray.blockCols(i) == tray.getCols()) {
+                walls.add(i);
+            }
+        }
+        walls.sort(new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return Integer.compare(along(tray, a, vertical), along(tray, b, vertical));
+            }
+        });
+        return walls;
+    }
+
+    /*
+     * Return the number of walls before Block i.
+     */
+    private static int stretch(Tray tray, List<Integer> walls, int i, boolean vertical)
+    {
+        int before = 0;
+
+        for(int wall : walls) {
+            if(along(tray, wall, vertical) < along(tray, i, vertical)) {
+                before++;
+            }
+        }
+        return before;
+    }
+
+    /*
+     * Return the column of Block i if vertical is true, its row otherwise.
+     */
+    private static int along(Tray tray, int i, boolean vertical)
+    {
+        return vertical ? tray.blockPosition(i) % tray.getCols()
+            : tray.blockPosition(i) / tray.getCols();
+    }
+}
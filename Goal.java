@@ -0,0 +1,235 @@
+import java.util.*;
+
+/*
+ * The Goal class.
+ * A goal Tray compiled against the starting Tray of a puzzle. The goal
+ * only pins a subset of the Blocks, so it is grouped into shape classes:
+ * for each distinct Block shape in the goal, the target positions that
+ * must be covered and the indices of the starting Tray's Blocks that have
+ * that shape.
+ *
+ * The estimate() heuristic is the minimum total cost of an assignment of
+ * distinct same-shaped Blocks to the targets. For single cell moves the
+ * cost of a Block is its Manhattan distance to the target; when a move can
+ * slide a Block any distance (see Tray.setMoveMode()) it is the number of
+ * slides the Block needs on an empty Tray, 0, 1 or 2, and with turns 0 or
+ * 1. Either way one move changes it by at most one, so it is admissible
+ * and consistent.
+ */
+class Goal
+{
+    /* Returned by estimate() when the goal can never be reached. */
+    final static int UNREACHABLE = Integer.MAX_VALUE;
+
+    /* Largest shape class solved exactly, larger ones use a weaker bound. */
+    private final static int MAX_EXACT_TARGETS = 12;
+
+    private final int cols;
+    private final int moveMode;
+    private final int[][] targetRows, targetCols;
+    private final int[][] candidates;
+    private final int[][] memo;
+    private final boolean reachable;
+    private final boolean complete;
+
+    /*
+     * Constructor.
+     *
+     * @param start the starting Tray of the puzzle.
+     * @param desired the goal Tray, possibly naming only some Blocks.
+     */
+    public Goal(Tray start, Tray desired)
+    {
+        ArrayList<int[]> shapes = new ArrayList<int[]>();
+        ArrayList<ArrayList<Integer>> targets = new ArrayList<ArrayList<Integer>>();
+
+        for(int j=0; j<desired.numBlocks(); j++) {
+            int shape = shapes.size();
+            for(int s=0; s<shapes.size(); s++) {
+                if(shapes.get(s)[0] == desired.blockRows(j)
+                        && shapes.get(s)[1] == desired.blockCols(j)) {
+                    shape = s;
+                }
+            }
+            if(shape == shapes.size()) {
+                shapes.add(new int[] {desired.blockRows(j), desired.blockCols(j)});
+                targets.add(new ArrayList<Integer>());
+            }
+            targets.get(shape).add(desired.blockPosition(j));
+        }
+
+        cols = start.getCols();
+        moveMode = start.moveMode();
+        targetRows = new int[shapes.size()][];
+        targetCols = new int[shapes.size()][];
+        candidates = new int[shapes.size()][];
+        memo = new int[shapes.size()][];
+        boolean possible = true;
+
+        for(int s=0; s<shapes.size(); s++) {
+            ArrayList<Integer> cells = targets.get(s);
+            targetRows[s] = new int[cells.size()];
+            targetCols[s] = new int[cells.size()];
+            for(int t=0; t<cells.size(); t++) {
+                targetRows[s][t] = cells.get(t) / cols;
+                targetCols[s][t] = cells.get(t) % cols;
+            }
+
+            ArrayList<Integer> same = new ArrayList<Integer>();
+            for(int i=0; i<start.numBlocks(); i++) {
+                if(start.blockRows(i) == shapes.get(s)[0]
+                        && start.blockCols(i) == shapes.get(s)[1]) {
+                    same.add(i);
+                }
+            }
+            candidates[s] = new int[same.size()];
+            for(int i=0; i<same.size(); i++) {
+                candidates[s][i] = same.get(i);
+            }
+
+            possible = possible && same.size() >= cells.size();
+            if(cells.size() <= MAX_EXACT_TARGETS) {
+                memo[s] = new int[1 << cells.size()];
+            }
+        }
+        reachable = possible;
+
+        boolean exact = true;
+        for(int s=0; s<candidates.length; s++) {
+            exact = exact && targetRows[s].length == candidates[s].length;
+        }
+        complete = exact && named() == start.numBlocks();
+    }
+
+    /*
+     * Returns true if the goal names every Block of the starting Tray, so
+     * that it determines the whole board.
+     */
+    public boolean isComplete()
+    {
+        return complete;
+    }
+
+    /*
+     * Return the position of every Block of the starting Tray in the goal,
+     * indexed like the starting Tray, or null if the goal is not complete.
+     * Same shaped Blocks are matched to targets in order, Tray.setPositions()
+     * puts them back in canonical order.
+     */
+    public int[] completion()
+    {
+        if(!complete) {
+            return null;
+        }
+        int[] cells = new int[named()];
+
+        for(int s=0; s<candidates.length; s++) {
+            for(int t=0; t<candidates[s].length; t++) {
+                cells[candidates[s][t]] =
+                    targetRows[s][t]*cols + targetCols[s][t];
+            }
+        }
+        return cells;
+    }
+
+    /*
+     * Return the number of Blocks named by the goal.
+     */
+    private int named()
+    {
+        int named = 0;
+
+        for(int s=0; s<targetRows.length; s++) {
+            named += targetRows[s].length;
+        }
+        return named;
+    }
+
+    /*
+     * Return a lower bound on the number of moves needed to reach the goal
+     * from tray, or UNREACHABLE. Not thread safe.
+     *
+     * @param tray a Tray descended from the starting Tray.
+     */
+    public int estimate(Tray tray)
+    {
+        if(!reachable) {
+            return UNREACHABLE;
+        }
+        int total = 0;
+
+        for(int s=0; s<candidates.length; s++) {
+            total += memo[s] != null ? assignment(s, tray) : farthest(s, tray);
+        }
+        return total;
+    }
+
+    /*
+     * Exact minimum cost assignment of candidates to targets for shape
+     * class s, by dynamic programming over the subsets of targets.
+     */
+    private int assignment(int s, Tray tray)
+    {
+        int[] best = memo[s];
+        int targets = targetRows[s].length;
+        int full = (1 << targets) - 1;
+
+        Arrays.fill(best, UNREACHABLE);
+        best[0] = 0;
+        for(int i : candidates[s]) {
+            int row = tray.blockPosition(i) / cols;
+            int col = tray.blockPosition(i) % cols;
+            for(int used=full; used>=0; used--) {
+                if(best[used] == UNREACHABLE) {
+                    continue;
+                }
+                for(int t=0; t<targets; t++) {
+                    if((used & (1 << t)) == 0) {
+                        int cost = best[used] + cost(row, col, s, t);
+                        best[used | (1 << t)] =
+                            Math.min(best[used | (1 << t)], cost);
+                    }
+                }
+            }
+        }
+        return best[full];
+    }
+
+    /*
+     * Weaker bound for large shape classes: the distance from the worst
+     * placed target to its nearest candidate.
+     */
+    private int farthest(int s, Tray tray)
+    {
+        int worst = 0;
+
+        for(int t=0; t<targetRows[s].length; t++) {
+            int nearest = UNREACHABLE;
+            for(int i : candidates[s]) {
+                int distance = cost(tray.blockPosition(i) / cols,
+                    tray.blockPosition(i) % cols, s, t);
+                nearest = Math.min(nearest, distance);
+            }
+            worst = Math.max(worst, nearest);
+        }
+        return worst;
+    }
+
+    /*
+     * Return the moves a Block at (row, col) needs to reach target t of
+     * shape class s, ignoring every other Block.
+     */
+    private int cost(int row, int col, int s, int t)
+    {
+        int rows = Math.abs(row - targetRows[s][t]);
+        int columns = Math.abs(col - targetCols[s][t]);
+
+        if(moveMode == Tray.STEPS) {
+            return rows + columns;
+        }
+        if(moveMode == Tray.TURNS || rows == 0 || columns == 0) {
+            return rows + columns == 0 ? 0 : 1;
+        }
+        return 2;
+    }
+}
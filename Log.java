@@ -0,0 +1,162 @@
+import java.util.*;
+import java.util.function.*;
+
+/*
+ * The Log class.
+ * Leveled diagnostics of the solver, written to stderr so they never mix
+ * with the move list. A message is printed if its level is at or above
+ * the level set with setLevel(), or if it is a BENCH message and
+ * setBench() was called.
+ *
+ * Messages are only built when they will be printed: each level takes a
+ * plain String, a format and its arguments, or a Supplier, and checks
+ * its level before formatting or calling the Supplier. The check is a
+ * load and a bit test of one static field, which the JIT inlines at every
+ * call site; on hot paths, guard with on() so not even the arguments are
+ * boxed.
+ */
+final class Log
+{
+    /* Levels, from the most verbose */
+    final static int DEBUG = 1;
+    final static int INFO = 2;
+    final static int BENCH = 3;
+    final static int WARN = 4;
+    final static int ERROR = 5;
+
+    private final static String[] NAMES = {"", "DEBUG", "INFO", "INFO", "WARN", "ERROR"};
+    private final static int LEVELS = (1 << NAMES.length) - 2;
+
+    /* One bit per level printed */
+    private static int enabled = LEVELS & (-1 << ERROR);
+
+    private Log()
+    {
+    }
+
+    /*
+     * Print the messages of level and above, as well as BENCH messages if
+     * setBench() was called.
+     *
+     * @param level the least severe level printed.
+     */
+    static void setLevel(int level)
+    {
+        enabled = (enabled & (1 << BENCH)) | (LEVELS & (-1 << level));
+    }
+
+    /*
+     * Print BENCH messages whatever the level.
+     */
+    static void setBench()
+    {
+        enabled |= 1 << BENCH;
+    }
+
+    /*
+     * Returns true if messages of level are printed.
+     */
+    static boolean on(int level)
+    {
+        return (enabled & (1 << level)) != 0;
+    }
+
+    static void debug(String message)
+    {
+        if(on(DEBUG)) {
+            write(DEBUG, message);
+        }
+    }
+
+    static void debug(String format, Object... args)
+    {
+        if(on(DEBUG)) {
+            write(DEBUG, String.format(format, args));
+        }
+    }
+
+    static void debug(Supplier<String> message)
+    {
+        if(on(DEBUG)) {
+            write(DEBUG, message.get());
+        }
+    }
+
+    static void info(String message)
+    {
+        if(on(INFO)) {
+            write(INFO, message);
+        }
+    }
+
+    static void info(String format, Object... args)
+    {
+        if(on(INFO)) {
+            write(INFO, String.format(format, args));
+        }
+    }
+
+    static void info(Supplier<String> message)
+    {
+        if(on(INFO)) {
+            write(INFO, message.get());
+        }
+    }
+
+    static void bench(String message)
+    {
+        if(on(BENCH)) {
+            write(BENCH, message);
+        }
+    }
+
+    static void bench(String format, Object... args)
+    {
+        if(on(BENCH)) {
+            write(BENCH, String.format(format, args));
+        }
+    }
+
+    static void bench(Supplier<String> message)
+    {
+        if(on(BENCH)) {
+            write(BENCH, message.get());
+        }
+    }
+
+    static void warn(String message)
+    {
+        if(on(WARN)) {
+            write(WARN, message);
+        }
+    }
+
+    static void warn(String format, Object... args)
+    {
+        if(on(WARN)) {
+            write(WARN, String.format(format, args));
+        }
+    }
+
+    static void error(String message)
+    {
+        if(on(ERROR)) {
+            write(ERROR, message);
+        }
+    }
+
+    static void error(String format, Object... args)
+    {
+        if(on(ERROR)) {
+            write(ERROR, String.format(format, args));
+        }
+    }
+
+    /*
+     * Print a message with the name of its level.
+     */
+    private static void write(int level, String message)
+    {
+        System.err.println("[ " + NAMES[level] + " ]: " + message);
+    }
+}
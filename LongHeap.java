@@ -0,0 +1,75 @@
+import java.util.*;
+
+/*
+ * The LongHeap class.
+ * A binary min-heap of primitive longs. Callers pack a priority into the
+ * high bits and a payload (such as a StateArena index) into the low bits.
+ */
+class LongHeap
+{
+    private long[] heap = new long[1024];
+    private int size;
+
+    /*
+     * Add a value to the heap.
+     *
+     * @param value to add.
+     */
+    public void push(long value)
+    {
+        if(size == heap.length) {
+            heap = Arrays.copyOf(heap, size + (size >> 1));
+        }
+        int i = size++;
+        while(i > 0 && heap[(i - 1) >>> 1] > value) {
+            heap[i] = heap[(i - 1) >>> 1];
+            i = (i - 1) >>> 1;
+        }
+        heap[i] = value;
+    }
+
+    /*
+     * Remove and return the smallest value in the heap.
+     *
+     * @throws NoSuchElementException if the heap is empty.
+     */
+    public long pop() throws NoSuchElementException
+    {
+        if(size == 0) {
+            throw new NoSuchElementException();
+        }
+        long top = heap[0];
+        long last = heap[--size];
+        int i = 0;
+
+        while(2*i + 1 < size) {
+            int child = 2*i + 1;
+            if(child + 1 < size && heap[child + 1] < heap[child]) {
+                child++;
+            }
+            if(heap[child] >= last) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = last;
+        return top;
+    }
+
+    /*
+     * Return the number of values in the heap.
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /*
+     * Return the approximate number of bytes held by the heap.
+     */
+    public long footprint()
+    {
+        return 8L * heap.length;
+    }
+}
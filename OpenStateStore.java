@@ -0,0 +1,203 @@
+import java.util.*;
+
+/*
+ * The OpenStateStore class.
+ * An open-addressing (linear probing) hash set of packed state keys. The
+ * table is two flat arrays: the 32 bit hash of every slot, where 0 marks an
+ * empty slot, and the keys themselves, width longs per slot. No objects are
+ * created per entry and no keys are ever boxed.
+ *
+ * The table grows by growthFactor whenever its size passes loadFactor times
+ * its capacity.
+ */
+class OpenStateStore implements StateStore
+{
+    private final int width;
+    private final float loadFactor;
+    private final int growthFactor;
+    private int[] hashes;
+    private long[] keys;
+    private int size, mask, threshold;
+
+    /*
+     * Constructor. Uses a load factor of 0.5 and doubles on resize.
+     *
+     * @param width number of longs in each key.
+     */
+    public OpenStateStore(int width)
+    {
+        this(width, 1 << 10, 0.5f, 2);
+    }
+
+    /*
+     * Constructor.
+     *
+     * @param width number of longs in each key.
+     * @param initialCapacity number of slots to start with. Rounded up to a
+     * power of two.
+     * @param loadFactor fraction of slots that may be used before growing.
+     * @param growthFactor the capacity is multiplied by this on each resize.
+     * Rounded up to a power of two.
+     * @throws IllegalArgumentException if a parameter is out of range.
+     */
+    public OpenStateStore(int width, int initialCapacity, float loadFactor,
+            int growthFactor) throws IllegalArgumentException
+    {
+        if(width < 1 || loadFactor <= 0f || loadFactor >= 1f
+                || growthFactor < 2) {
+            throw new IllegalArgumentException(
+                "Bad state store parameters: width " + width + ", load factor "
+                + loadFactor + ", growth factor " + growthFactor);
+        }
+        this.width = width;
+        this.loadFactor = loadFactor;
+        this.growthFactor = Integer.highestOneBit(growthFactor - 1) << 1;
+        allocate(Math.max(16, Integer.highestOneBit(initialCapacity - 1) << 1));
+    }
+
+    /*
+     * Replace the table with an empty one of the given capacity.
+     *
+     * @param capacity number of slots. Must be a power of two.
+     */
+    private void allocate(int capacity)
+    {
+        hashes = new int[capacity];
+        keys = new long[capacity * width];
+        mask = capacity - 1;
+        threshold = (int)(capacity * loadFactor);
+        size = 0;
+    }
+
+    /*
+     * Hash the key, never returning 0 since 0 marks an empty slot.
+     */
+    private int hash(long[] key, int offset)
+    {
+        long h = 0x9E3779B97F4A7C15L;
+
+        for(int i=0; i<width; i++) {
+            h = (h ^ key[offset + i]) * 0xBF58476D1CE4E5B9L;
+            h ^= h >>> 31;
+        }
+        int result = (int)(h ^ (h >>> 32));
+        return result == 0 ? 1 : result;
+    }
+
+    /*
+     * Return the slot holding the key, or the empty slot where it belongs.
+     */
+    private int find(long[] key, int offset, int h)
+    {
+        int slot = h & mask;
+
+        while(hashes[slot] != 0) {
+            if(hashes[slot] == h && sameKey(slot, key, offset)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /*
+     * Returns true if slot holds the given key.
+     */
+    private boolean sameKey(int slot, long[] key, int offset)
+    {
+        int base = slot * width;
+
+        for(int i=0; i<width; i++) {
+            if(keys[base + i] != key[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean add(long[] key, int offset)
+    {
+        int h = hash(key, offset);
+        int slot = find(key, offset, h);
+
+        if(hashes[slot] != 0) {
+            return false;
+        }
+        hashes[slot] = h;
+        System.arraycopy(key, offset, keys, slot * width, width);
+        if(++size > threshold) {
+            resize(hashes.length * growthFactor);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean contains(long[] key, int offset)
+    {
+        return hashes[find(key, offset, hash(key, offset))] != 0;
+    }
+
+    /*
+     * Rehash every entry into a table of the given capacity.
+     */
+    private void resize(int capacity)
+    {
+        int[] oldHashes = hashes;
+        long[] oldKeys = keys;
+        int oldSize = size;
+
+        allocate(capacity);
+        for(int slot=0; slot<oldHashes.length; slot++) {
+            if(oldHashes[slot] != 0) {
+                int target = oldHashes[slot] & mask;
+                while(hashes[target] != 0) {
+                    target = (target + 1) & mask;
+                }
+                hashes[target] = oldHashes[slot];
+                System.arraycopy(oldKeys, slot * width, keys, target * width,
+                    width);
+            }
+        }
+        size = oldSize;
+    }
+
+    /*
+     * Return the number of longs in each key.
+     */
+    public int width()
+    {
+        return width;
+    }
+
+    @Override
+    public int size()
+    {
+        return size;
+    }
+
+    @Override
+    public long footprint()
+    {
+        return 4L * hashes.length + 8L * keys.length;
+    }
+
+    /*
+     * Return the number of bytes the store will need while adding one more
+     * state, counting both tables while a resize copies one into the other.
+     */
+    public long peakFootprint()
+    {
+        if(size + 1 <= threshold) {
+            return footprint();
+        }
+        return footprint() * (1 + growthFactor);
+    }
+
+    @Override
+    public void clear()
+    {
+        Arrays.fill(hashes, 0);
+        size = 0;
+    }
+}
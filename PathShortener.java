@@ -0,0 +1,254 @@
+import java.util.*;
+
+/*
+ * The PathShortener class.
+ * Shortens a solution found by the depth-first search, which wanders far
+ * from the shortest path before stumbling on the goal. Two passes alternate
+ * until neither helps or the work budget is spent:
+ *
+ *  - Cycles are cut: wherever a state comes back later in the path, the
+ *    moves between its two visits are dropped.
+ *  - Shortcuts are taken: from each state of the path, a breadth-first
+ *    search of at most LOCAL_STATES states looks for a later state of the
+ *    path (or any goal) in fewer moves than the path takes to get there,
+ *    and the moves it finds replace the path's.
+ *
+ * The budget counts the children generated by the local searches, so the
+ * work done is bounded whatever the length of the path. Each pass spreads
+ * it over the states of the path, so a small budget buys shallow searches
+ * from every state rather than deep ones from the first few.
+ */
+class PathShortener
+{
+    /* States a local search from one state of the path may reach */
+    final static int LOCAL_STATES = 4096;
+
+    /* Least states a local search may reach, however small the budget */
+    private final static int MIN_STATES = 64;
+
+    private final static int NONE = StateArena.NONE;
+
+    private final Tray start;
+    private final Tray scratch;
+    private final int width;
+    private final long[] key;
+    private final int[] moves;
+    private final OpenStateStore seen;
+    private final StateArena local;
+    private long budget;
+    private long spent;
+    private int limit;
+    private int shortcut;
+
+    /*
+     * Constructor.
+     *
+     * @param start the Tray the paths start from, with its goal set.
+     * @param budget children the local searches may generate in all.
+     */
+    public PathShortener(Tray start, long budget)
+    {
+        this.start = start;
+        this.budget = budget;
+        scratch = new Tray(start);
+        width = start.keyWidth();
+        key = new long[width];
+        moves = new int[start.maxMoves()];
+        seen = new OpenStateStore(width, 2 * LOCAL_STATES, 0.5f, 2);
+        local = new StateArena(width);
+    }
+
+    /*
+     * Return a path from the starting Tray to the same goal as path, and
+     * no longer.
+     *
+     * @param path move codes from the starting Tray to a goal.
+     */
+    public int[] shorten(int[] path)
+    {
+        path = removeCycles(path);
+        while(budget > 0) {
+            int[] shorter = removeCycles(takeShortcuts(path));
+            if(shorter.length == path.length) {
+                break;
+            }
+            path = shorter;
+        }
+        return path;
+    }
+
+    /*
+     * Return the number of children generated by the local searches.
+     */
+    public long spent()
+    {
+        return spent;
+    }
+
+    /*
+     * Return path without the moves between two visits of the same state.
+     */
+    private int[] removeCycles(int[] path)
+    {
+        long[] keys = states(path);
+        int[] index = index(keys, path.length + 1);
+        int[] out = new int[path.length];
+        int length = 0;
+
+        for(int i = find(index, keys, keys, 0); i < path.length;
+                i = find(index, keys, keys, (i + 1) * width)) {
+            out[length++] = path[i];
+        }
+        return Arrays.copyOf(out, length);
+    }
+
+    /*
+     * Return path with every shortcut found by a local search from its
+     * states, in order, while the budget lasts.
+     */
+    private int[] takeShortcuts(int[] path)
+    {
+        long[] keys = states(path);
+        int[] index = index(keys, path.length + 1);
+        int[] out = new int[path.length];
+        int length = 0;
+
+        limit = (int)Math.max(MIN_STATES,
+            Math.min(LOCAL_STATES, budget / Math.max(1, path.length)));
+        for(int i=0; i<path.length; ) {
+            int j = budget > 0 ? search(keys, index, i, path.length) : NONE;
+            if(j == NONE) {
+                out[length++] = path[i++];
+                continue;
+            }
+            for(int move : local.path(shortcut)) {
+                out[length++] = move;
+            }
+            i = j;
+        }
+        return Arrays.copyOf(out, length);
+    }
+
+    /*
+     * Search breadth-first from state i of a path for the later state that
+     * saves the most moves. Returns its index in the path, the length of
+     * the path for a goal, or NONE if no state saves a move; the state
+     * reached is left in shortcut.
+     *
+     * @param keys the keys of the states of the path.
+     * @param index the index of keys.
+     * @param i the state of the path to search from.
+     * @param goal the index of the last state of the path.
+     */
+    private int search(long[] keys, int[] index, int i, int goal)
+    {
+        int best = NONE, saving = 0;
+
+        seen.clear();
+        local.clear();
+        seen.add(keys, i * width);
+        local.add(keys, i * width, NONE, 0);
+        for(int depth = 1, begin = 0; begin < local.size(); depth++) {
+            int end = local.size();
+
+            if(saving >= goal - i - depth) {
+                break;
+            }
+            for(int s = begin; s < end; s++) {
+                if(budget <= 0 || local.size() >= limit) {
+                    return best;
+                }
+                scratch.unpackKey(local.keys(), local.offset(s));
+                int count = scratch.legalMoves(moves);
+                budget -= count;
+                spent += count;
+                for(int m = 0; m < count; m++) {
+                    int undo = scratch.applyMove(moves[m]);
+                    scratch.packKey(key, 0);
+                    if(seen.add(key, 0)) {
+                        int state = local.add(key, 0, s, moves[m]);
+                        int j = scratch.isGoal() ? goal : find(index, keys, key, 0);
+                        if(j != NONE && j - i - depth > saving) {
+                            best = j;
+                            saving = j - i - depth;
+                            shortcut = state;
+                        }
+                    }
+                    scratch.undoMove(undo);
+                }
+            }
+            begin = end;
+        }
+        return best;
+    }
+
+    /*
+     * Return the packed keys of the states path goes through, starting Tray
+     * first.
+     */
+    private long[] states(int[] path)
+    {
+        Tray tray = new Tray(start);
+        long[] keys = new long[(path.length + 1) * width];
+
+        tray.packKey(keys, 0);
+        for(int i=0; i<path.length; i++) {
+            tray.applyMove(path[i]);
+            tray.packKey(keys, (i + 1) * width);
+        }
+        return keys;
+    }
+
+    /*
+     * Return an open-addressing table of the first count keys, mapping each
+     * key to the last state that has it. A slot holds the state plus one,
+     * 0 when empty.
+     */
+    private int[] index(long[] keys, int count)
+    {
+        int[] table = new int[Integer.highestOneBit(2 * count - 1) << 1];
+
+        for(int i=0; i<count; i++) {
+            table[slot(table, keys, keys, i * width)] = i + 1;
+        }
+        return table;
+    }
+
+    /*
+     * Return the last state of the path with the given key, or NONE.
+     */
+    private int find(int[] table, long[] keys, long[] key, int offset)
+    {
+        return table[slot(table, keys, key, offset)] - 1;
+    }
+
+    /*
+     * Return the slot of table holding the key, or the empty slot where it
+     * belongs.
+     */
+    private int slot(int[] table, long[] keys, long[] key, int offset)
+    {
+        int mask = table.length - 1;
+        long h = 0x9E3779B97F4A7C15L;
+
+        for(int w=0; w<width; w++) {
+            h = (h ^ key[offset + w]) * 0xBF58476D1CE4E5B9L;
+            h ^= h >>> 31;
+        }
+        for(int slot = (int)(h ^ (h >>> 32)) & mask; ; slot = (slot + 1) & mask) {
+            if(table[slot] == 0 || sameKey(keys, (table[slot] - 1) * width, key, offset)) {
+                return slot;
+            }
+        }
+    }
+
+    private boolean sameKey(long[] keys, int at, long[] key, int offset)
+    {
+        for(int w=0; w<width; w++) {
+            if(keys[at + w] != key[offset + w]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,324 @@
+import java.lang.management.*;
+import java.util.*;
+import jdk.jfr.*;
+
+/*
+ * The SearchMetrics class.
+ * Counters of one search, and samples of them that other threads can read.
+ *
+ * The counters are plain fields written only by the search thread, so
+ * counting costs the hot loop an increment and nothing more. Another
+ * thread that wants to see them calls sample(), which asks the search
+ * thread for a fresh Sample and returns the last one published. The
+ * search thread answers in poll(), which Solver calls every 1024 expanded
+ * states; the request and the Sample handed over are the only fields
+ * shared between threads, and both are volatile. A Sample is immutable.
+ *
+ * A Sample derives the rates reported: nodes per second since the sample
+ * before it, the branching factor (children generated per expanded state),
+ * the dedup hit rate (children already visited per child generated), the
+ * histogram of expanded states by depth, the bytes held by the visited
+ * tables (and how full a Bloom filter fallback is) and the time spent in
+ * garbage collection since the search began.
+ * It is written as a JSON line, a report card or a JFR event.
+ */
+class SearchMetrics
+{
+    /* Children generated and how many of them were already visited */
+    long generated;
+    long duplicates;
+
+    /* States waiting to be expanded, or the depth of a depth-first path */
+    long frontier;
+
+    private long[] depths = new long[64];
+    private int deepest = -1;
+    private StateStore[] tables = new StateStore[0];
+
+    private final long began = System.nanoTime();
+    private final long gcBefore = gcMillis();
+    private volatile boolean wanted = true;
+    private volatile Sample latest;
+
+    /*
+     * Count n states expanded at the given depth.
+     *
+     * @param depth depth of the states, from 0.
+     * @param n number of states.
+     */
+    void expandedAt(int depth, long n)
+    {
+        if(depth >= depths.length) {
+            depths = Arrays.copyOf(depths, Math.max(depth + 1, 2 * depths.length));
+        }
+        depths[depth] += n;
+        deepest = Math.max(deepest, depth);
+    }
+
+    /*
+     * Report the size and footprint of the visited tables of the search in
+     * the samples to come.
+     */
+    void watch(StateStore... tables)
+    {
+        this.tables = tables;
+    }
+
+    /*
+     * Publish a Sample if one was asked for. Search thread only.
+     *
+     * @param expanded number of states expanded so far.
+     */
+    void poll(long expanded)
+    {
+        if(wanted) {
+            publish(expanded);
+        }
+    }
+
+    /*
+     * Publish a Sample of the counters now. Search thread only.
+     *
+     * @param expanded number of states expanded so far.
+     */
+    void publish(long expanded)
+    {
+        wanted = false;
+        latest = new Sample(this, expanded);
+    }
+
+    /*
+     * Return the last Sample published, or null if there is none yet, and
+     * ask the search thread for a new one. Any thread.
+     */
+    Sample sample()
+    {
+        wanted = true;
+        return latest;
+    }
+
+    /*
+     * Return the milliseconds spent in garbage collection by this JVM.
+     */
+    private static long gcMillis()
+    {
+        long total = 0;
+
+        for(GarbageCollectorMXBean collector
+                : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, collector.getCollectionTime());
+        }
+        return total;
+    }
+
+    /*
+     * The counters of a search at one instant.
+     */
+    static class Sample
+    {
+        final long nanos;
+        final long expanded, generated, duplicates, frontier;
+        final long visited, tableBytes, gcMillis;
+        final long[] depths;
+
+        /* Fill and false positive rate of a Bloom filter, or -1 if none */
+        final double bloomFill, falsePositiveRate;
+
+        private Sample(SearchMetrics metrics, long expanded)
+        {
+            nanos = System.nanoTime() - metrics.began;
+            this.expanded = expanded;
+            generated = metrics.generated;
+            duplicates = metrics.duplicates;
+            frontier = metrics.frontier;
+            gcMillis = gcMillis() - metrics.gcBefore;
+            depths = Arrays.copyOf(metrics.depths, metrics.deepest + 1);
+
+            long size = 0, bytes = 0;
+            double fill = -1, rate = -1;
+            for(StateStore table : metrics.tables) {
+                size += table.size();
+                bytes += table.footprint();
+                if(table instanceof BudgetedStateStore
+                        && ((BudgetedStateStore)table).isApproximate()) {
+                    fill = ((BudgetedStateStore)table).fill();
+                    rate = ((BudgetedStateStore)table).falsePositiveRate();
+                }
+            }
+            visited = size;
+            tableBytes = bytes;
+            bloomFill = fill;
+            falsePositiveRate = rate;
+        }
+
+        /*
+         * Return the states expanded per second since previous, or since
+         * the search began if previous is null.
+         */
+        double nodesPerSecond(Sample previous)
+        {
+            long nodes = expanded - (previous == null ? 0 : previous.expanded);
+            long time = nanos - (previous == null ? 0 : previous.nanos);
+            return time <= 0 ? 0 : nodes * 1e9 / time;
+        }
+
+        /*
+         * Return the average number of children of an expanded state.
+         */
+        double branchingFactor()
+        {
+            return expanded == 0 ? 0 : (double)generated / expanded;
+        }
+
+        /*
+         * Return the fraction of children that had already been visited.
+         */
+        double dedupHitRate()
+        {
+            return generated == 0 ? 0 : (double)duplicates / generated;
+        }
+
+        /*
+         * Return this Sample as one line of JSON.
+         *
+         * @param search number identifying the search in this JVM.
+         * @param algorithm the -oalg algorithm of the search.
+         * @param previous the Sample reported before this one, or null.
+         * @param last true if the search is over.
+         */
+        String json(int search, int algorithm, Sample previous, boolean last)
+        {
+            StringBuilder line = new StringBuilder(128 + 8 * depths.length);
+
+            line.append("{\"search\":").append(search)
+                .append(",\"alg\":").append(algorithm)
+                .append(",\"final\":").append(last)
+                .append(",\"ms\":").append(nanos / 1000000)
+                .append(",\"expanded\":").append(expanded)
+                .append(",\"generated\":").append(generated)
+                .append(",\"nodesPerSecond\":")
+                .append(String.format(Locale.ROOT, "%.1f", nodesPerSecond(previous)))
+                .append(",\"branchingFactor\":")
+                .append(String.format(Locale.ROOT, "%.4f", branchingFactor()))
+                .append(",\"dedupHitRate\":")
+                .append(String.format(Locale.ROOT, "%.4f", dedupHitRate()))
+                .append(",\"frontier\":").append(frontier)
+                .append(",\"visited\":").append(visited)
+                .append(",\"tableBytes\":").append(tableBytes);
+            if(bloomFill >= 0) {
+                line.append(",\"bloomFill\":")
+                    .append(String.format(Locale.ROOT, "%.4f", bloomFill))
+                    .append(",\"falsePositiveRate\":")
+                    .append(String.format(Locale.ROOT, "%.3e", falsePositiveRate));
+            }
+            line.append(",\"gcMs\":").append(gcMillis)
+                .append(",\"depths\":[");
+            for(int d=0; d<depths.length; d++) {
+                line.append(d == 0 ? "" : ",").append(depths[d]);
+            }
+            return line.append("]}").toString();
+        }
+
+        /*
+         * Return this Sample as a report card for the console.
+         *
+         * @param previous the Sample reported before this one, or null.
+         */
+        String card(Sample previous)
+        {
+            return "Report Card:"
+                + "\n\t\tElapsed time: " + (nanos / 1000000000L) + " seconds"
+                + "\n\t\tStates Expanded: " + expanded
+                + String.format(" (%.0f/s)", nodesPerSecond(previous))
+                + String.format("\n\t\tBranching Factor: %.2f", branchingFactor())
+                + String.format("\n\t\tDedup Hit Rate: %.1f%%", 100 * dedupHitRate())
+                + "\n\t\tFrontier: " + frontier
+                + ", Max Depth: " + (depths.length - 1)
+                + "\n\t\tTable Size: " + visited
+                + "\n\t\tMemory Footprint: " + (tableBytes / 1024) + " KB"
+                + (bloomFill < 0 ? ""
+                    : String.format("\n\t\tBloom Filter Fill: %.1f%%", 100 * bloomFill)
+                    + String.format("\n\t\tFalse Positive Rate: %.2e", falsePositiveRate))
+                + "\n\t\tGC Time: " + gcMillis + " ms";
+        }
+
+        /*
+         * Commit this Sample as a JFR event, if a recording wants it. The
+         * event class is not even loaded while the flight recorder is off.
+         *
+         * @param search number identifying the search in this JVM.
+         * @param algorithm the -oalg algorithm of the search.
+         * @param previous the Sample reported before this one, or null.
+         */
+        void record(int search, int algorithm, Sample previous)
+        {
+            if(!FlightRecorder.isInitialized()) {
+                return;
+            }
+            SampleEvent event = new SampleEvent();
+            if(!event.isEnabled()) {
+                return;
+            }
+            event.search = search;
+            event.algorithm = algorithm;
+            event.expanded = expanded;
+            event.nodesPerSecond = nodesPerSecond(previous);
+            event.branchingFactor = branchingFactor();
+            event.dedupHitRate = dedupHitRate();
+            event.frontier = frontier;
+            event.maxDepth = depths.length - 1;
+            event.visited = visited;
+            event.tableBytes = tableBytes;
+            event.gcTime = gcMillis;
+            event.commit();
+        }
+    }
+
+    /*
+     * The JFR event of a Sample, recorded when a flight recording is on,
+     * e.g. with java -XX:StartFlightRecording.
+     */
+    @Name("blocks.SearchSample")
+    @Label("Search Sample")
+    @Category("Blocks")
+    @Description("Counters of a running puzzle search")
+    @StackTrace(false)
+    static class SampleEvent extends Event
+    {
+        @Label("Search")
+        int search;
+
+        @Label("Algorithm")
+        int algorithm;
+
+        @Label("States Expanded")
+        long expanded;
+
+        @Label("Nodes per Second")
+        double nodesPerSecond;
+
+        @Label("Branching Factor")
+        double branchingFactor;
+
+        @Label("Dedup Hit Rate")
+        @Percentage
+        double dedupHitRate;
+
+        @Label("Frontier")
+        long frontier;
+
+        @Label("Max Depth")
+        int maxDepth;
+
+        @Label("Visited States")
+        long visited;
+
+        @Label("Visited Table")
+        @DataAmount
+        long tableBytes;
+
+        @Label("GC Time")
+        @Timespan(Timespan.MILLISECONDS)
+        long gcTime;
+    }
+}
@@ -0,0 +1,229 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/*
+ * The SolutionCache class.
+ * A directory of solved puzzles, so that solving the same start and goal
+ * again is a file read. Each entry is one file named after a hash of the
+ * canonical start and goal Trays, of whether the solution is a shortest
+ * one and of the move mode it was found in. It holds both Trays in full, so
+ * a hash collision is never taken for a hit, and the moves as (cell, path)
+ * pairs, independent of the Block indices of any one run.
+ *
+ * A cached solution is only returned after it has been replayed from the
+ * start and found to be legal and to reach the goal; an entry that fails
+ * is deleted. The cache holds at most capacity entries and evicts the
+ * least recently used ones, going by the modification time of the files,
+ * which every hit refreshes.
+ */
+class SolutionCache
+{
+    private final static int MAGIC = 0x426C6B53;
+    private final static int VERSION = 2;
+    private final static String SUFFIX = ".sol";
+
+    private final File directory;
+    private final int capacity;
+
+    /*
+     * Constructor.
+     *
+     * @param directory where to keep the entries. Created if missing.
+     * @param capacity maximum number of entries.
+     * @throws IOException if directory cannot be created.
+     */
+    public SolutionCache(File directory, int capacity) throws IOException
+    {
+        if(!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        this.directory = directory;
+        this.capacity = Math.max(1, capacity);
+    }
+
+    /*
+     * Return the verified move codes of a cached solution from start to
+     * goal, or null if there is none. A shortest solution is also returned
+     * when any solution will do.
+     *
+     * @param start the starting Tray.
+     * @param goal the goal Tray.
+     * @param shortest true if only a shortest solution will do.
+     */
+    public int[] lookup(Tray start, Tray goal, boolean shortest)
+    {
+        boolean[] kinds = shortest ? new boolean[] {true} : new boolean[] {false, true};
+
+        for(boolean kind : kinds) {
+            File file = entry(start, goal, kind);
+            if(!file.isFile()) {
+                continue;
+            }
+            int[] moves = read(file, start, goal);
+            if(moves != null) {
+                file.setLastModified(System.currentTimeMillis());
+                return moves;
+            }
+        }
+        return null;
+    }
+
+    /*
+     * Add a solution to the cache, evicting the least recently used entries
+     * if it is full.
+     *
+     * @param start the starting Tray.
+     * @param goal the goal Tray.
+     * @param shortest true if moves is a shortest solution.
+     * @param moves move codes from start.
+     * @throws IOException if the entry cannot be written.
+     */
+    public void store(Tray start, Tray goal, boolean shortest, int[] moves)
+        throws IOException
+    {
+        File file = entry(start, goal, shortest);
+        File temporary = File.createTempFile(file.getName(), ".tmp", directory);
+        int[] cells = start.moveCells(moves);
+        DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(temporary)));
+
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeTray(out, start);
+            writeTray(out, goal);
+            out.writeInt(moves.length);
+            for(int m=0; m<moves.length; m++) {
+                out.writeInt(cells[m]);
+                out.writeInt(Tray.movePath(moves[m]));
+            }
+        } finally {
+            out.close();
+        }
+        Files.move(temporary.toPath(), file.toPath(),
+            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        evict();
+    }
+
+    /*
+     * Delete the least recently used entries beyond capacity.
+     */
+    private void evict()
+    {
+        File[] entries = directory.listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.endsWith(SUFFIX);
+            }
+        });
+        if(entries == null || entries.length <= capacity) {
+            return;
+        }
+        Arrays.sort(entries, new Comparator<File>() {
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        for(int e=0; e<entries.length - capacity; e++) {
+            entries[e].delete();
+        }
+    }
+
+    /*
+     * Return the file of the entry for start, goal and kind of solution.
+     * Solutions in slides are kept apart from those in single cell moves.
+     */
+    private File entry(Tray start, Tray goal, boolean shortest)
+    {
+        long key = start.longHash() * 0x9E3779B97F4A7C15L
+            ^ Long.rotateLeft(goal.longHash(), 29)
+            ^ ((long)start.getRows() << 48) ^ ((long)start.getCols() << 32);
+
+        return new File(directory, String.format("%016x", key)
+            + (shortest ? "-shortest" : "-any")
+            + (start.moveMode() == Tray.STEPS ? "" : "-macro" + start.moveMode())
+            + SUFFIX);
+    }
+
+    /*
+     * Write the dimensions and every Block of tray.
+     */
+    private static void writeTray(DataOutputStream out, Tray tray)
+        throws IOException
+    {
+        out.writeInt(tray.getRows());
+        out.writeInt(tray.getCols());
+        out.writeInt(tray.numBlocks());
+        for(int i=0; i<tray.numBlocks(); i++) {
+            out.writeInt(tray.blockRows(i));
+            out.writeInt(tray.blockCols(i));
+            out.writeInt(tray.blockPosition(i));
+        }
+    }
+
+    /*
+     * Returns true if the Tray written next in in is tray.
+     */
+    private static boolean sameTray(DataInputStream in, Tray tray)
+        throws IOException
+    {
+        boolean same = in.readInt() == tray.getRows()
+            && in.readInt() == tray.getCols()
+            && in.readInt() == tray.numBlocks();
+
+        for(int i=0; same && i<tray.numBlocks(); i++) {
+            same = in.readInt() == tray.blockRows(i)
+                && in.readInt() == tray.blockCols(i)
+                && in.readInt() == tray.blockPosition(i);
+        }
+        return same;
+    }
+
+    /*
+     * Read an entry and replay it from start. Returns the move codes if the
+     * entry is for start and goal and its moves are legal and reach goal,
+     * otherwise null. An entry that is unreadable or does not replay is
+     * deleted.
+     */
+    private int[] read(File file, Tray start, Tray goal)
+    {
+        try {
+            DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if(in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    throw new IOException("not a cache entry");
+                }
+                if(!sameTray(in, start) || !sameTray(in, goal)) {
+                    Log.info("Cache entry %s is for another puzzle",
+                        file.getName());
+                    return null;
+                }
+                int length = in.readInt();
+                if(length < 0) {
+                    throw new IOException("bad move count");
+                }
+                int[] moves = new int[length];
+                Tray replay = new Tray(start);
+                for(int m=0; m<moves.length; m++) {
+                    moves[m] = replay.moveAt(in.readInt(), in.readInt());
+                    if(moves[m] == Tray.NO_MOVE) {
+                        throw new IOException("illegal move " + m);
+                    }
+                    replay.applyMove(moves[m]);
+                }
+                if(!replay.equals(goal)) {
+                    throw new IOException("the moves do not reach the goal");
+                }
+                return moves;
+            } finally {
+                in.close();
+            }
+        } catch(IOException e) {
+            Log.warn("Dropping cache entry " + file.getName()
+                + ": " + e.getMessage());
+            file.delete();
+            return null;
+        }
+    }
+}
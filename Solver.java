@@ -1,5 +1,10 @@
 import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 /**
  * The Solver class.
@@ -11,73 +16,162 @@ import java.util.*;
  */
 public class Solver
 {
-    /* Debugging Constants, see -ooptions for usage */
-    final static int DEBUG = 1;
-    final static int INFO = 2;
-    final static int WARN = 4;
-    final static int ERROR = 5;
-    final static int BENCH = 3;
-    final static int SPECIAL = 0;
+    /* Suppress the move list, see -ooptions for usage */
+    private static boolean SILENT = false;
 
     /* Solver Algorithms, see -ooptions for usage */
     private static int SOLVER_ALG;
 
-    private long startTime;
+    /* Moves of the search: cells, slides or slides with a turn. -ooptions */
+    private static int MOVE_MODE = Tray.STEPS;
+
+    /* Visited table load factor, see -ooptions for usage */
+    private static float LOAD_FACTOR = 0.5f;
+
+    /* Worker threads for parallel algorithms, see -ooptions for usage */
+    private static int THREADS = Runtime.getRuntime().availableProcessors();
+
+    /* Visited table memory budget in bytes, 0 for none. See -ooptions */
+    private static long MEMORY_BUDGET = 0;
+
+    /* Directory for the external search's level files, see -ooptions */
+    private static String SCRATCH_DIR = System.getProperty("java.io.tmpdir");
+
+    /* States the external search sorts in memory at a time, without -omem */
+    private final static int RUN_STATES = 1 << 20;
+
+    /* Checkpoint files of the depth-first search, see -ooptions */
+    private static String CHECKPOINT_FILE;
+    private static String RESUME_FILE;
+
+    /* Solution cache directory and size in entries, see -ooptions */
+    private static String CACHE_DIR;
+    private static int CACHE_ENTRIES = 1000;
+
+    /* Batch manifest and number of puzzles solved at once, see -ooptions */
+    private static String BATCH_FILE;
+    private static int JOBS = Runtime.getRuntime().availableProcessors();
+
+    /* Default time (ms) and node budgets of a search, 0 for none */
+    private static long TIME_BUDGET = 0;
+    private static long NODE_BUDGET = 0;
+
+    /* Where the daemon takes requests from, see -ooptions */
+    private static String SERVE;
+
+    /* Work of the depth-first solution shortening, in percent of the
+       children generated by the search, 0 for none. See -ooptions */
+    private static int SHORTEN_PERCENT = 100;
+
+    /* Expansions kept by the search trace, 0 for no trace. See -ooptions */
+    private static int TRACE_SIZE = 0;
+
+    /* Where search metrics go as JSON lines ("-" for stderr) and how often */
+    private static String METRICS_FILE;
+    private static PrintStream METRICS_OUT;
+    private static long METRICS_INTERVAL = 7000;
+    private final static AtomicInteger SEARCHES = new AtomicInteger();
+
+    /* Visited tables reused across searches, in batch and daemon modes */
+    private static StorePool STORE_POOL;
+    private final static long POOLED_BYTES = 64L << 20;
+
+    /* Puzzle named on the command line */
     private static String startingConfig;
     private static String endingConfig;
+
+    private final int algorithm;
+    private final boolean silent;
+    private long timeBudget = TIME_BUDGET;
+    private long nodeBudget = NODE_BUDGET;
+    private int threads = THREADS;
+    private long deadline;
+    private String stopped;
+    private final ArrayList<Timer> timers = new ArrayList<Timer>();
+    private final ArrayList<OpenStateStore> borrowed = new ArrayList<OpenStateStore>();
+    private long startTime;
+    private long expanded;
+    private SearchMetrics metrics = new SearchMetrics();
+    private Report report;
+    private Trace trace;
     private Tray startingGame;
     private Tray desiredGame;
+    private int[] solution;
 
-    /*
-     * Debug inner class used to control program-wide debugging. 
-     * Refer to debugging options given in -ooptions
-     */
-    private static class Debug 
-    {
-        private static int SYSTEM_DEBUG_LEVEL = ERROR;
-        private static boolean BENCH = false;
-        private static boolean SILENT = false;
-    }
-        
     /* 
-     * TaskTimer class to implement running time statistics. 
+     * TimerTask reporting the metrics of the running search: a report card
+     * at benchmark level, a JSON line with -ometrics and a JFR event. Each
+     * report shows the Sample the search published since the one before.
      */ 
-    private class Periodic extends TimerTask 
+    private class Report extends TimerTask 
     {
-        private int trayCount = 0;
-        private int prevSize = 0;
-        private int dbSize = 0;
+        private final int search = SEARCHES.incrementAndGet();
+        private SearchMetrics.Sample last;
+        private volatile boolean checkpointDue = false;
 
         public void run()
         {
-            String outString = 
-                "Report Card:\n\t\tElapsed time: " 
-                + ((System.currentTimeMillis() - startTime)/1000) 
-                + " seconds"
-                +"\n\t\tTrays Tried: " 
-                + trayCount 
-                + "\n\t\tTable Size: " 
-                + prevSize 
-                + "\n\t\tMemory Size: " 
-                + dbSize;
-            dPrint(BENCH, outString);
-        }   
+            checkpointDue = true;
+            emit(metrics.sample(), false);
+        }
+
+        /*
+         * Report a Sample, unless it has been reported already.
+         *
+         * @param sample the Sample, or null for none.
+         * @param over true if the search is over.
+         */
+        synchronized void emit(SearchMetrics.Sample sample, boolean over)
+        {
+            if(sample == null || sample == last) {
+                return;
+            }
+            if(Log.on(Log.BENCH)) {
+                Log.bench(sample.card(last));
+            }
+            if(METRICS_FILE != null) {
+                writeMetrics(sample.json(search, algorithm, last, over));
+            }
+            sample.record(search, algorithm, last);
+            last = sample;
+        }
     }
 
     /**
-     * Constructor for the Solver class.
+     * Constructor for the Solver class. Uses the algorithm and output options
+     * given on the command line.
      *
      * @param startingFile Config file for the initial Tray.
      * @param desiredFile Config file for the goal Tray.
      */
     public Solver(String startingFile, String desiredFile)
     {
+        this(startingFile, desiredFile, SOLVER_ALG, SILENT);
+    }
+
+    /**
+     * Constructor for the Solver class. Each Solver holds the state of one
+     * puzzle, so several can run at once. The options of -ooptions other
+     * than the algorithm and the move list are shared by every Solver.
+     *
+     * @param startingFile Config file for the initial Tray.
+     * @param desiredFile Config file for the goal Tray.
+     * @param algorithm solver algorithm, as for -oalg.
+     * @param silent true to keep the move list from being printed.
+     */
+    public Solver(String startingFile, String desiredFile, int algorithm,
+            boolean silent)
+    {
+        this.algorithm = algorithm;
+        this.silent = silent;
         startingGame = createGame(startingFile);
         desiredGame = createGame(
             startingGame.getRows(), 
             startingGame.getCols(), 
             desiredFile
         );
+        startingGame.setMoveMode(MOVE_MODE);
+        startingGame.setGoal(desiredGame);
     }
 
     /* 
@@ -105,50 +199,70 @@ public class Solver
             +"\n\t\t\t\t\tValid algorithms:"
             +"\n\t\t\t\t\t\tStandard depth-first (per block), first try "
             +"(default)"
+            +"\n\t\t\t\t\t\t2: Breadth-first, shortest solution (uses 5 when"
+            +" the goal names every block)"
+            +"\n\t\t\t\t\t\t3: A*, shortest solution"
+            +"\n\t\t\t\t\t\t4: IDA*, shortest solution in memory linear"
+            +" in depth"
+            +"\n\t\t\t\t\t\t5: Bidirectional breadth-first, shortest solution"
+            +" (needs a goal naming every block, otherwise uses 2)"
+            +"\n\t\t\t\t\t\t6: Parallel breadth-first, shortest solution"
+            +"\n\t\t\t\t\t\t7: External-memory breadth-first, shortest"
+            +" solution, levels kept on disk"
+            +"\n\t\tmacro #\t\tCount a slide of any length as one move (1),"
+            +" or also a slide\n\t\t\t\taround one corner (2). Moves are"
+            +" still printed one cell\n\t\t\t\tat a time"
+            +"\n\t\tshorten #\tShorten solutions of algorithm 1, generating"
+            +" up to # percent\n\t\t\t\tas many states as the search"
+            +" (default 100, 0 for none)"
+            +"\n\t\tload #\t\tLoad factor of the visited table, between 0 and 1"
+            +" (default 0.5)"
+            +"\n\t\tthreads #\tWorker threads for parallel algorithms"
+            +" (default: one per core)"
+            +"\n\t\tmem #[kmg]\tMemory budget of the search. Once the"
+            +" visited table reaches it,\n\t\t\t\tnew states go into a"
+            +" Bloom filter, which may prune a\n\t\t\t\tfew unseen states,"
+            +" and the search stops when its stack\n\t\t\t\tno longer"
+            +" fits (algorithm 1, default: no budget)\n\t\t\t\tAlgorithms"
+            +" 2, 3, 5 and 6 stop once their states pass it\n\t\t\t\tFor"
+            +" algorithm 7, the size of each sorted run instead"
+            +"\n\t\tcheckpoint file\tSave the search to file at every report"
+            +" card, and the states\n\t\t\t\tvisited to file.keys (algorithm 1)"
+            +"\n\t\tresume file\tCarry on the search saved in file, and keep"
+            +" saving to it\n\t\t\t\tunless checkpoint names another file"
+            +" (algorithm 1)"
+            +"\n\t\tcache dir\tReuse solutions kept in dir, and keep new"
+            +" ones there"
+            +"\n\t\tcachesize #\tEntries kept in the cache, least recently"
+            +" used go first\n\t\t\t\t(default 1000)"
+            +"\n\t\tbatch file\tSolve every \"initial goal [alg]\" line of"
+            +" file instead, printing\n\t\t\t\tone result line per puzzle:"
+            +" initial, goal, status, ms,\n\t\t\t\tnodes expanded and moves"
+            +" (no configs needed)"
+            +"\n\t\tjobs #\t\tPuzzles solved at once in batch mode"
+            +" (default: one per core)"
+            +"\n\t\ttimeout #\tGive up a search after # ms (default: never)"
+            +"\n\t\tnodes #\t\tGive up a search after expanding # states"
+            +" (default: never)"
+            +"\n\t\tserve where\tRun as a daemon taking requests from stdin"
+            +" (-), a local TCP\n\t\t\t\tport (#) or a Unix socket (path)."
+            +" Each request is a line\n\t\t\t\t\"initial goal [alg]"
+            +" [time=#] [nodes=#] [macro=#]\", each answer a\n\t\t\t\tline \"seq"
+            +" status moves ms expanded\" then the moves"
+            +" (no configs needed)"
+            +"\n\t\tscratch dir\tDirectory for the level files of algorithm 7"
+            +" (default: the\n\t\t\t\tsystem temporary directory)"
+            +"\n\t\ttrace #\t\tKeep the last # states expanded (depth and"
+            +" hash) and print\n\t\t\t\tthem to stderr when the search ends"
+            +"\n\t\tmetrics file\tAppend search metrics to file as JSON lines"
+            +" (- for stderr)"
+            +"\n\t\tinterval #\tMilliseconds between metrics reports and"
+            +" report cards\n\t\t\t\t(default 7000). Reports are also"
+            +" JFR events when a\n\t\t\t\tflight recording is on"
             +"\n\n  Written by: John Wilkey. CS47B\n"
         );
     }
 
-    /*
-     * Debug print routine. Prints the debugging message along with anything 
-     * else that might be helpful at the time.
-     * Verbosity level range from 1 (DEBUG) to 4 (ERROR) 
-     *
-     * @param level Severity level of this message.
-     * @param message Debug message to write. :w
-     */
-    static void dPrint(int level, String message)
-    {
-        String LevelMeaning = "";
-        switch (level) {
-            case 1: 
-                LevelMeaning = "DEBUG";
-                break;
-            case 2: 
-                LevelMeaning = "INFO";
-                break;
-            case 3: 
-                LevelMeaning = "INFO";
-                break;
-            case 4: 
-                LevelMeaning = "WARN";
-                break;
-            case 5: 
-                LevelMeaning = "ERROR";
-                break;  
-        }
-        
-        boolean cond1 = level == Debug.SYSTEM_DEBUG_LEVEL;
-        boolean cond2 = level == BENCH && Debug.BENCH;
-        boolean cond3 = level == SPECIAL && !Debug.SILENT;
-
-        if (cond1 || cond2) {
-            System.out.println("[ " + LevelMeaning + " ]: " +  message); 
-        } else if (cond3) {
-            System.out.println(message);
-        }
-    }
-    
     /*
      * Read the configuration file provided in program arguments
      * generate a new instance of a game Tray and populate that tray with 
@@ -163,17 +277,12 @@ public class Solver
         try { 
             game = new Tray(new Scanner(new BufferedReader(new FileReader(config)))); 
         } catch (IOException e) { 
-            dPrint(ERROR, "Reached unexpectd end of configuration file");
+            Log.error("Reached unexpectd end of configuration file");
             return null;
         }
 
-        String debugString = 
-            "Game has been created with the hash " 
-            + game.hashCode() 
-            + " and following configuration...\n" 
-            + game;
-
-        dPrint(INFO, debugString); 
+        Log.info("Game has been created with the hash %d and following"
+            + " configuration...\n%s", game.hashCode(), game);
         return game;        
     }
 
@@ -192,20 +301,165 @@ public class Solver
         try { 
             game = new Tray(row, col, new Scanner(new BufferedReader(new FileReader(config)))); 
         } catch (IOException e) { 
-            dPrint(ERROR, "Reached unexpectd end of configuration file"); 
+            Log.error("Reached unexpectd end of configuration file"); 
             return null;
         }
 
-        String debugString = 
-            "Game has been created with the hash " 
-            + game.hashCode() 
-            + " and following configuration...\n" 
-            + game;
-
-        dPrint(INFO, debugString); 
+        Log.info("Game has been created with the hash %d and following"
+            + " configuration...\n%s", game.hashCode(), game);
         return game;        
     }
 
+    /*
+     * Parse a size in bytes with an optional k, m or g suffix.
+     * Returns -1 if size is malformed.
+     *
+     * @param size String such as "4g".
+     */
+    static private long parseBytes(String size)
+    {
+        String digits = size.toLowerCase();
+        long unit = 1;
+
+        switch(digits.isEmpty() ? ' ' : digits.charAt(digits.length() - 1)) {
+            case 'k': unit = 1L << 10; break;
+            case 'm': unit = 1L << 20; break;
+            case 'g': unit = 1L << 30; break;
+        }
+        if(unit > 1) {
+            digits = digits.substring(0, digits.length() - 1);
+        }
+        try {
+            return Long.parseLong(digits) * unit;
+        } catch(NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /*
+     * Return an empty visited-state store for keys of the given width,
+     * bounded by the -omem budget if one was given to the default
+     * algorithm, and otherwise taken from STORE_POOL if there is one.
+     * Pooled stores go back to the pool when solvePuzzle() returns.
+     * The breadth-first and A* searches keep every state they reach in a
+     * StateArena as well, so pruning their visited table would only lose
+     * them states: they get no Bloom filter, and checkMemory() stops them
+     * once over the budget instead.
+     *
+     * @param width number of longs in each key.
+     */
+    private StateStore visitedStore(int width)
+    {
+        if(MEMORY_BUDGET > 0 && (algorithm < 2 || algorithm > 7)) {
+            return new BudgetedStateStore(width, MEMORY_BUDGET, LOAD_FACTOR);
+        }
+        if(STORE_POOL != null) {
+            OpenStateStore store = STORE_POOL.borrow(width);
+            borrowed.add(store);
+            return store;
+        }
+        return new OpenStateStore(width, 1 << 10, LOAD_FACTOR, 2);
+    }
+
+    /*
+     * Return a Timer for a search's report card. solvePuzzle() cancels it
+     * however the search ends.
+     */
+    private Timer newTimer()
+    {
+        Timer timer = new Timer(true);
+        timers.add(timer);
+        return timer;
+    }
+
+    /*
+     * Append a line to the -ometrics file, opening it on first use.
+     *
+     * @param line a JSON object.
+     */
+    private static synchronized void writeMetrics(String line)
+    {
+        if(METRICS_OUT == null) {
+            try {
+                METRICS_OUT = METRICS_FILE.equals("-") ? System.err
+                    : new PrintStream(new FileOutputStream(METRICS_FILE, true), true);
+            } catch(IOException e) {
+                Log.warn("Not writing metrics: " + e.getMessage());
+                METRICS_FILE = null;
+                return;
+            }
+        }
+        METRICS_OUT.println(line);
+    }
+
+    /*
+     * Count a state expanded at the given depth, in the metrics and the
+     * -otrace ring buffer, then as for expand().
+     *
+     * @param tray the state.
+     * @param depth depth of the state, from 0.
+     */
+    private void expandState(Tray tray, int depth) throws BudgetExceeded
+    {
+        metrics.expandedAt(depth, 1);
+        if(trace != null) {
+            trace.record(expanded, depth, tray.longHash());
+        }
+        expand(1);
+    }
+
+    /*
+     * Count n more expanded states. Once the search is over its node or
+     * time budget, stop it by throwing BudgetExceeded. The clock is only
+     * read, and metrics only published, every 1024 states.
+     *
+     * @param n number of states expanded.
+     */
+    private void expand(long n) throws BudgetExceeded
+    {
+        long before = expanded;
+
+        expanded += n;
+        if(nodeBudget > 0 && expanded > nodeBudget) {
+            throw new BudgetExceeded("node budget of " + nodeBudget + " used up");
+        }
+        if((before >>> 10) != (expanded >>> 10)) {
+            metrics.poll(expanded);
+            if(deadline != 0 && System.nanoTime() - deadline > 0) {
+                throw new BudgetExceeded("time budget of " + timeBudget + " ms used up");
+            }
+        }
+    }
+
+    /*
+     * Stop the search by throwing BudgetExceeded if it holds more than the
+     * -omem budget.
+     *
+     * @param bytes bytes held by the search: its visited states, and its
+     * stack, arena or open list.
+     */
+    private void checkMemory(long bytes) throws BudgetExceeded
+    {
+        if(MEMORY_BUDGET > 0 && bytes > MEMORY_BUDGET) {
+            throw new BudgetExceeded("memory budget of " + MEMORY_BUDGET
+                + " bytes used up");
+        }
+    }
+
+    /*
+     * Thrown out of a search that ran out of its node, time or memory
+     * budget.
+     */
+    private static class BudgetExceeded extends RuntimeException
+    {
+        private final static long serialVersionUID = 1L;
+
+        BudgetExceeded(String message)
+        {
+            super(message, null, false, false);
+        }
+    }
+
     /*
      * Process command-line arguments given to the program at runtime. 
      * Refer to -ooptions for argument descriptions.
@@ -216,45 +470,156 @@ public class Solver
     {
         try {
             int index = 0;
-            while (args[index].charAt(0) == '-') {
+            while (index < args.length && args[index].charAt(0) == '-') {
                switch (args[index]) {
                    case "-ooptions":   
                        showHelp();
                        return -2;
                    case "-odebug":     
-                       Debug.SYSTEM_DEBUG_LEVEL = DEBUG;
-                       dPrint(DEBUG, "** Debug level: DEBUG **");
+                       Log.setLevel(Log.DEBUG);
+                       Log.debug("** Debug level: DEBUG **");
                        break;
                    case "-oinfo":      
-                       Debug.SYSTEM_DEBUG_LEVEL = INFO;
-                       dPrint(INFO, "** Debug level: INFO **");
+                       Log.setLevel(Log.INFO);
+                       Log.info("** Debug level: INFO **");
                        break;
                    case "-owarn":      
-                       Debug.SYSTEM_DEBUG_LEVEL = WARN;
-                       dPrint(WARN, "**  Debug level: WARN **");
+                       Log.setLevel(Log.WARN);
+                       Log.warn("**  Debug level: WARN **");
                        break;
                    case "-osilent":    
-                       Debug.SILENT = true;
-                       dPrint(INFO, "** Supressing move list output **");
+                       SILENT = true;
+                       Log.info("** Supressing move list output **");
                        break;
                    case "-obenchmark": 
-                       Debug.BENCH = true;
+                       Log.setBench();
                        break;
                    case "-oalg":       
                        index++;
-                       SOLVER_ALG = new Integer(args[index]);
+                       SOLVER_ALG = Integer.parseInt(args[index]);
+                       break;
+                   case "-omacro":
+                       index++;
+                       MOVE_MODE = Integer.parseInt(args[index]);
+                       if(MOVE_MODE < Tray.SLIDES || MOVE_MODE > Tray.TURNS) {
+                           Log.error("Macro moves are 1 (slides) or 2 (slides with a turn)");
+                           return -1;
+                       }
+                       break;
+                   case "-oload":
+                       index++;
+                       LOAD_FACTOR = Float.parseFloat(args[index]);
+                       if(LOAD_FACTOR <= 0f || LOAD_FACTOR >= 1f) {
+                           Log.error("Load factor must be between 0 and 1");
+                           return -1;
+                       }
+                       break;
+                   case "-othreads":
+                       index++;
+                       THREADS = Integer.parseInt(args[index]);
+                       if(THREADS < 1) {
+                           Log.error("Need at least one thread");
+                           return -1;
+                       }
+                       break;
+                   case "-ocheckpoint":
+                       index++;
+                       CHECKPOINT_FILE = args[index];
+                       break;
+                   case "-oresume":
+                       index++;
+                       RESUME_FILE = args[index];
+                       break;
+                   case "-ocache":
+                       index++;
+                       CACHE_DIR = args[index];
+                       break;
+                   case "-ocachesize":
+                       index++;
+                       CACHE_ENTRIES = Integer.parseInt(args[index]);
+                       if(CACHE_ENTRIES < 1) {
+                           Log.error("The cache needs room for at least one entry");
+                           return -1;
+                       }
+                       break;
+                   case "-obatch":
+                       index++;
+                       BATCH_FILE = args[index];
+                       break;
+                   case "-ojobs":
+                       index++;
+                       JOBS = Integer.parseInt(args[index]);
+                       if(JOBS < 1) {
+                           Log.error("Need at least one job");
+                           return -1;
+                       }
+                       break;
+                   case "-otimeout":
+                       index++;
+                       TIME_BUDGET = Long.parseLong(args[index]);
+                       break;
+                   case "-onodes":
+                       index++;
+                       NODE_BUDGET = Long.parseLong(args[index]);
+                       break;
+                   case "-oserve":
+                       index++;
+                       SERVE = args[index];
+                       break;
+                   case "-otrace":
+                       index++;
+                       TRACE_SIZE = Integer.parseInt(args[index]);
+                       if(TRACE_SIZE < 1) {
+                           Log.error("The trace needs room for at least one expansion");
+                           return -1;
+                       }
+                       break;
+                   case "-oshorten":
+                       index++;
+                       SHORTEN_PERCENT = Integer.parseInt(args[index]);
+                       if(SHORTEN_PERCENT < 0) {
+                           Log.error("Shortening work cannot be negative");
+                           return -1;
+                       }
+                       break;
+                   case "-ometrics":
+                       index++;
+                       METRICS_FILE = args[index];
+                       break;
+                   case "-ointerval":
+                       index++;
+                       METRICS_INTERVAL = Long.parseLong(args[index]);
+                       if(METRICS_INTERVAL < 1) {
+                           Log.error("Metrics interval must be at least 1 ms");
+                           return -1;
+                       }
+                       break;
+                   case "-oscratch":
+                       index++;
+                       SCRATCH_DIR = args[index];
+                       break;
+                   case "-omem":
+                       index++;
+                       MEMORY_BUDGET = parseBytes(args[index]);
+                       if(MEMORY_BUDGET <= 0) {
+                           Log.error("Memory budget must be a size such as 512m or 4g");
+                           return -1;
+                       }
                        break;
                    default:            
-                       dPrint(ERROR, "Unrecognized option, bail");
+                       Log.error("Unrecognized option, bail");
                        return -1;
                }
                 ++index;    
             }
+            if(BATCH_FILE != null || SERVE != null) {
+                return 0;
+            }
             startingConfig = args[index];
             ++index;
             endingConfig = args[index];
         } catch(ArrayIndexOutOfBoundsException e) {
-            dPrint(ERROR, "Fatal Error: Malformed arguments.");
+            Log.error("Fatal Error: Malformed arguments.");
             return -2;
         }
         return 0;
@@ -271,105 +636,1476 @@ public class Solver
      */
     private boolean solvePuzzle(Tray currentTray)
     {
-        switch (SOLVER_ALG) {
+        deadline = timeBudget > 0 ? System.nanoTime() + timeBudget * 1000000 : 0;
+        metrics = new SearchMetrics();
+        trace = TRACE_SIZE > 0 ? new Trace(TRACE_SIZE) : null;
+        report = new Report();
+        newTimer().scheduleAtFixedRate(report, METRICS_INTERVAL, METRICS_INTERVAL);
+        try {
+            return runAlgorithm(currentTray);
+        } catch(BudgetExceeded e) {
+            stopped = e.getMessage();
+            Log.warn("Search stopped: " + stopped);
+            return false;
+        } finally {
+            for(Timer timer : timers) {
+                timer.cancel();
+            }
+            timers.clear();
+            metrics.publish(expanded);
+            report.emit(metrics.sample(), true);
+            if(trace != null) {
+                trace.dump(System.err);
+            }
+            for(OpenStateStore store : borrowed) {
+                STORE_POOL.release(store);
+            }
+            borrowed.clear();
+        }
+    }
+
+    /*
+     * Run the requested solving algorithm on currentTray, see solvePuzzle().
+     *
+     * @param currentTray Tray to solve.
+     */
+    private boolean runAlgorithm(Tray currentTray)
+    {
+        if((CHECKPOINT_FILE != null || RESUME_FILE != null)
+                && algorithm >= 2 && algorithm <= 7) {
+            Log.warn("Checkpoints are only taken by the default algorithm");
+        }
+        if(MEMORY_BUDGET > 0 && algorithm == 4) {
+            Log.warn("IDA* keeps no visited states, the memory budget is not used");
+        }
+        switch (algorithm) {
+            case 2:
+                if(new Goal(startingGame, desiredGame).isComplete()) {
+                    Log.info("Goal names every block, searching from both ends");
+                    return algorithm_5(currentTray);
+                }
+                Log.info("Using breadth-first solver algorithm");
+                return algorithm_2(currentTray);
+            case 3:
+                Log.info("Using A* solver algorithm");
+                return algorithm_3(currentTray);
+            case 4:
+                Log.info("Using IDA* solver algorithm");
+                return algorithm_4(currentTray);
+            case 5:
+                Log.info("Using bidirectional breadth-first solver algorithm");
+                return algorithm_5(currentTray);
+            case 6:
+                Log.info("Using parallel breadth-first solver algorithm on %d"
+                    + " threads", threads);
+                return algorithm_6(currentTray);
+            case 7:
+                Log.info("Using external-memory breadth-first solver algorithm"
+                    + " in %s", SCRATCH_DIR);
+                return algorithm_7(currentTray);
             default:    
-                dPrint(INFO, "Using default solver algorithm"); 
+                Log.info("Using default solver algorithm"); 
                 return algorithm_1(currentTray);
         }
     }
 
     /*
      * A Depth First Search (DFS) solving algorithm. 
+     * Moves are made and taken back on a single Tray, and the path is the
+     * MoveStack, so nothing is allocated per expanded state.
+     * With -ocheckpoint (or -oresume), every metrics report also snapshots the
+     * stack and the states visited since the last snapshot between two
+     * moves, and a background thread writes the snapshot out while the
+     * search goes on. A search stopped by its budget writes a last snapshot
+     * before it returns, and the moves of a state it had not expanded yet
+     * are listed when it resumes.
+     * With -omem, the stack counts against the budget along with the
+     * visited states, and the search stops once they no longer fit.
      *
      * @param currentTray Tray to solve. 
      */
     private boolean algorithm_1(Tray currentTray)
     {
-        HashSet<Tray> memory = new HashSet<Tray>();
-        Deque<Tray> previousTrays = new ArrayDeque<Tray>();
-        previousTrays.add(currentTray);
-        
-        AbstractList<String> directions = new ArrayList<String>();
-        directions.add("u");
-        directions.add("d");
-        directions.add("l");
-        directions.add("r");
-
-        Timer t = new Timer();
-        Periodic task = new Periodic();
-        t.scheduleAtFixedRate(task, 7000l , 7000l);
-
-        for(int i = 0 ; previousTrays.size() > 0; ) {
-            if( currentTray.equals(desiredGame) ) {
-                dPrint(INFO, "*** SUCCESS *** Solutio Found!\n"+currentTray);
-                currentTray.changeLog();
+        Tray tray = new Tray(currentTray);
+        long[] key = new long[tray.keyWidth()];
+        long[] start = new long[key.length];
+        StateStore memory;
+        MoveStack stack;
+        Checkpoint.Journal journal = null;
+        String checkpoint = CHECKPOINT_FILE != null ? CHECKPOINT_FILE : RESUME_FILE;
+        long i = 0;
+
+        tray.packKey(start, 0);
+        if(RESUME_FILE != null) {
+            Checkpoint saved;
+            try {
+                saved = Checkpoint.read(new File(RESUME_FILE));
+            } catch(IOException e) {
+                Log.error("Could not resume: " + e.getMessage());
+                return false;
+            }
+            if(!Arrays.equals(saved.start, start) || saved.span != tray.maxMoves()) {
+                Log.error(RESUME_FILE + " was saved from another puzzle");
+                return false;
+            }
+            memory = visitedStore(key.length);
+            try {
+                saved.restore(new File(RESUME_FILE), new File(checkpoint), memory);
+            } catch(IOException e) {
+                Log.error("Could not resume: " + e.getMessage());
+                return false;
+            }
+            journal = new Checkpoint.Journal(key.length, saved.states);
+            stack = new MoveStack(tray, saved);
+            if(saved.count[saved.depth] == 0) {
+                stack.generate(tray);
+            }
+            expanded = saved.expanded;
+            i = saved.tried;
+            metrics.generated = i;
+            Log.info("Resuming at depth %d with %d states visited",
+                stack.depth(), memory.size());
+        } else {
+            memory = visitedStore(key.length);
+            stack = new MoveStack(tray);
+            memory.add(start, 0);
+            if(checkpoint != null) {
+                Checkpoint.keyLog(new File(checkpoint)).delete();
+                journal = new Checkpoint.Journal(key.length, 0);
+                journal.add(start, 0);
+            }
+            if(tray.isGoal()) {
+                printSolution(stack.path());
                 return true;
             }
-    
-            for(Tray.Block block : currentTray) {
-                for(String direction : directions) { 
-                    Tray newTray = currentTray.moveBlock(block, direction);
-                    
-                    if(newTray != null && !memory.contains(newTray)) {
-                        newTray.setPreviousTray(currentTray);
-                        previousTrays.push(newTray);
-                        memory.add(newTray);
+            expandState(tray, 0);
+            stack.generate(tray);
+        }
+        metrics.watch(memory);
+        BudgetedStateStore budgeted = memory instanceof BudgetedStateStore
+            ? (BudgetedStateStore)memory : null;
+        long stackBytes = 0;
+
+        ExecutorService writer = null;
+        Future<?> pending = null;
+        if(checkpoint != null) {
+            writer = Executors.newSingleThreadExecutor();
+        }
+
+        try {
+            while(stack.depth() >= 0) {
+                if(report.checkpointDue && writer != null) {
+                    report.checkpointDue = false;
+                    if(pending == null || pending.isDone()) {
+                        pending = writer.submit(new CheckpointWriter(
+                            stack.snapshot(start, expanded, i, journal),
+                            new File(checkpoint)));
+                    }
+                }
+                if(!stack.hasNext()) {
+                    if(stack.depth() > 0) {
+                        tray.undoMove(stack.pop());
+                    } else {
+                        stack.pop();
                     }
+                    continue;
+                }
+                int undo = tray.applyMove(stack.next());
+                metrics.generated = ++i;
+
+                tray.packKey(key, 0);
+                if(!memory.add(key, 0)) {
+                    metrics.duplicates++;
+                    tray.undoMove(undo);
+                    continue;
+                }
+                if(journal != null) {
+                    journal.add(key, 0);
+                }
+                stack.push(undo, tray);
+                metrics.frontier = stack.depth();
 
-                    task.trayCount = ++i;
-                    task.prevSize = previousTrays.size();
-                    task.dbSize = memory.size();
+                if(tray.isGoal()) {
+                    Log.info("*** SUCCESS *** Solution Found!\n%s", tray);
+                    printSolution(shorten(stack.path()));
+                    return true;
+                }
+                expandState(tray, stack.depth());
+                stack.generate(tray);
+                if(MEMORY_BUDGET > 0 && stack.footprint() != stackBytes) {
+                    stackBytes = stack.footprint();
+                    if(budgeted != null) {
+                        budgeted.reserve(stackBytes);
+                    }
+                    checkMemory(memory.footprint() + stackBytes);
                 }
             }
-            currentTray = previousTrays.pop();
+            return false;
+        } catch(BudgetExceeded e) {
+            if(writer != null) {
+                finishWriting(writer);
+                new CheckpointWriter(stack.snapshot(start, expanded, i, journal),
+                    new File(checkpoint)).run();
+            }
+            throw e;
+        } finally {
+            if(writer != null) {
+                finishWriting(writer);
+            }
         }
-        return false;    
     }
 
-    /**
-     * Program entry point.
+    /*
+     * Wait for the checkpoints submitted to writer to be written, so none
+     * is cut short when the program exits.
+     *
+     * @param writer the executor of the CheckpointWriters.
      */
-    public static void main(String[] args)
+    private static void finishWriting(ExecutorService writer)
     {
-        Solver game = null;
-        int keepGoing = 0;
-        
-        try { 
-            keepGoing = processArgs(args); 
-        } catch (NullPointerException e) { 
-            dPrint(ERROR,"Not enough arguments"); 
+        writer.shutdown();
+        try {
+            writer.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
+    }
 
-        if(keepGoing < 0) {
-            System.exit(-1);
+    /*
+     * Shorten a depth-first solution with a PathShortener, allowed
+     * SHORTEN_PERCENT of the children the search generated (and at least
+     * one local search's worth), and report its length before and after.
+     *
+     * @param moves the solution found by the search.
+     */
+    private int[] shorten(int[] moves)
+    {
+        if(SHORTEN_PERCENT == 0) {
+            return moves;
         }
+        long began = System.currentTimeMillis();
+        PathShortener shortener = new PathShortener(startingGame, Math.max(
+            PathShortener.LOCAL_STATES, metrics.generated * SHORTEN_PERCENT / 100));
+        int[] shorter = shortener.shorten(moves);
 
-        try { 
-            game = new Solver(startingConfig, endingConfig); 
-        } catch (Exception e) {
-            dPrint(ERROR, "Something went horribly wrong :(");
-            System.exit(-1);
+        Log.bench("Shortened the solution from %d to %d moves in %d ms"
+            + " (%d states generated)", moves.length, shorter.length,
+            System.currentTimeMillis() - began, shortener.spent());
+        return shorter;
+    }
+
+    /*
+     * Writes a Checkpoint to a file, on the thread it is submitted to.
+     */
+    private static class CheckpointWriter implements Runnable
+    {
+        private final Checkpoint snapshot;
+        private final File file;
+
+        CheckpointWriter(Checkpoint snapshot, File file)
+        {
+            this.snapshot = snapshot;
+            this.file = file;
         }
 
-        game.startTime = System.currentTimeMillis();
-        if(!game.solvePuzzle(game.startingGame)) {
-            dPrint(WARN, "***** SORRY ****** Could not find a solution");
+        public void run()
+        {
+            long began = System.currentTimeMillis();
+            try {
+                snapshot.write(file);
+                Log.info("Checkpoint of depth %d and %d states written to %s"
+                    + " in %d ms", snapshot.depth, snapshot.states, file,
+                    System.currentTimeMillis() - began);
+            } catch(IOException e) {
+                Log.warn("Checkpoint failed: " + e.getMessage());
+            }
+        }
+    }
 
-            String timeString = 
-                "Elapsed time: " 
-                + ((System.currentTimeMillis() - game.startTime)/1000) 
-                + " seconds";
-            
-            dPrint(BENCH, timeString); 
-            System.exit(-1);
+    /*
+     * The explicit stack of a make/unmake depth first search. For every
+     * depth it keeps the list of legal moves of the Tray at that depth, the
+     * next one to try, the move that undoes the step to the depth below and
+     * the key of the Tray, all in flat arrays that only grow with depth.
+     * The move lists are packed one after the other, first[d] being where
+     * the list of depth d starts, so a depth costs the moves its Tray has
+     * rather than the most any Tray can have.
+     */
+    private static class MoveStack
+    {
+        private final int span, width;
+        private int[] moves, first, count, cursor, undo;
+        private long[] keys;
+        private int depth;
+
+        MoveStack(Tray tray)
+        {
+            span = tray.maxMoves();
+            width = tray.keyWidth();
+            moves = new int[64 * span];
+            first = new int[64];
+            count = new int[64];
+            cursor = new int[64];
+            undo = new int[64];
+            keys = new long[64 * width];
+            tray.packKey(keys, 0);
+        }
+
+        /*
+         * Restore the stack saved in a Checkpoint of a search of tray,
+         * rebuilding its keys and undo moves by making the moves of its
+         * path on tray, which is left at the top of the stack.
+         */
+        MoveStack(Tray tray, Checkpoint saved)
+        {
+            int capacity = Math.max(64, 2 * (saved.depth + 1));
+
+            span = tray.maxMoves();
+            width = tray.keyWidth();
+            depth = saved.depth;
+            first = new int[capacity];
+            for(int d=1; d<=depth; d++) {
+                first[d] = first[d - 1] + saved.count[d - 1];
+            }
+            moves = Arrays.copyOf(saved.moves, 2 * saved.moves.length + span);
+            count = Arrays.copyOf(saved.count, capacity);
+            cursor = Arrays.copyOf(saved.cursor, capacity);
+            undo = new int[capacity];
+            keys = new long[capacity * width];
+            for(int d=0; d<depth; d++) {
+                tray.packKey(keys, d * width);
+                undo[d] = tray.applyMove(moves[first[d] + cursor[d] - 1]);
+            }
+            tray.packKey(keys, depth * width);
+        }
+
+        /* Return the current depth, -1 once the root is exhausted. */
+        int depth()
+        {
+            return depth;
+        }
+
+        /* Fill the move list of the current depth from tray. */
+        void generate(Tray tray)
+        {
+            int at = first[depth];
+
+            if(at + span > moves.length) {
+                moves = Arrays.copyOf(moves, at + span + (moves.length >> 1));
+            }
+            count[depth] = tray.legalMoves(moves, at);
+            cursor[depth] = 0;
+        }
+
+        /* Returns true if the current depth has moves left to try. */
+        boolean hasNext()
+        {
+            return cursor[depth] < count[depth];
+        }
+
+        /* Return the next move to try at the current depth. */
+        int next()
+        {
+            return moves[first[depth] + cursor[depth]++];
         }
 
-        String timeString = 
-            "Solved the puzzle in " 
-            + ((System.currentTimeMillis() - game.startTime)/1000) 
-            + " seconds";
+        /* Step down to tray, reached by the last move from next(). */
+        void push(int undoMove, Tray tray)
+        {
+            undo[depth++] = undoMove;
+            if(depth == count.length) {
+                int capacity = depth + (depth >> 1);
+                first = Arrays.copyOf(first, capacity);
+                count = Arrays.copyOf(count, capacity);
+                cursor = Arrays.copyOf(cursor, capacity);
+                undo = Arrays.copyOf(undo, capacity);
+                keys = Arrays.copyOf(keys, capacity * width);
+            }
+            first[depth] = first[depth - 1] + count[depth - 1];
+            count[depth] = 0;
+            cursor[depth] = 0;
+            tray.packKey(keys, depth * width);
+        }
+
+        /* Step back up, returning the move that undoes the last push(). */
+        int pop()
+        {
+            return --depth >= 0 ? undo[depth] : 0;
+        }
+
+        /* Returns true if tray equals the Tray at one of depths 0..depth. */
+        boolean onPath(Tray tray, long[] scratch)
+        {
+            tray.packKey(scratch, 0);
+            for(int d = depth; d >= 0; d--) {
+                boolean same = true;
+                for(int w = 0; w < width && same; w++) {
+                    same = keys[d * width + w] == scratch[w];
+                }
+                if(same) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /*
+         * Return a Checkpoint of the search, holding copies of the move
+         * lists and cursors of the stack and the keys the journal recorded
+         * since the last one. Copying costs the search thread the move
+         * lists of the current path and those keys, however many states
+         * were visited before; the keys and undo moves of the stack are
+         * left out, a restored stack rebuilds them.
+         */
+        Checkpoint snapshot(long[] start, long expanded, long tried,
+                Checkpoint.Journal journal)
+        {
+            long states = journal.states();
+
+            return new Checkpoint(start.clone(), expanded, tried, span, depth,
+                Arrays.copyOf(count, depth + 1),
+                Arrays.copyOf(cursor, depth + 1),
+                Arrays.copyOf(moves, first[depth] + count[depth]),
+                states, journal.drain());
+        }
+
+        /* Return the approximate number of bytes held by the stack. */
+        long footprint()
+        {
+            return 4L * (moves.length + first.length + count.length
+                + cursor.length + undo.length) + 8L * keys.length;
+        }
+
+        /* Return the moves leading from depth 0 to the current depth. */
+        int[] path()
+        {
+            int[] path = new int[Math.max(0, depth)];
+            for(int d = 0; d < depth; d++) {
+                path[d] = moves[first[d] + cursor[d] - 1];
+            }
+            return path;
+        }
+    }
+
+    /*
+     * A level-synchronous Breadth First Search (BFS) solving algorithm. 
+     * Returns the shortest solution. Every state is kept packed in a
+     * StateArena along with its parent index, so the frontier of each level
+     * is just a range of arena indices. Children are made and taken back on
+     * one scratch Tray, only long enough to pack their keys.
+     *
+     * @param currentTray Tray to solve. 
+     */
+    private boolean algorithm_2(Tray currentTray)
+    {
+        long[] key = new long[currentTray.keyWidth()];
+        StateStore memory = visitedStore(key.length);
+        StateArena arena = new StateArena(key.length);
+        Tray scratch = new Tray(currentTray);
+        int[] moves = new int[currentTray.maxMoves()];
+
+        currentTray.packKey(key, 0);
+        memory.add(key, 0);
+        arena.add(key, 0, StateArena.NONE, 0);
+        metrics.watch(memory);
+
+        for(int depth = 0, start = 0; start < arena.size(); depth++) {
+            int end = arena.size();
+            
+            Log.bench("Depth %d: frontier %d, visited %d, arena %d KB",
+                depth, end - start, memory.size(), arena.footprint() / 1024);
+
+            for(int state = start; state < end; state++) {
+                scratch.unpackKey(arena.keys(), arena.offset(state));
+                if(scratch.isGoal()) {
+                    Log.info("*** SUCCESS *** Solution Found!\n%s", scratch);
+                    printSolution(arena.path(state));
+                    return true;
+                }
+
+                expandState(scratch, depth);
+                int count = scratch.legalMoves(moves);
+                for(int m = 0; m < count; m++) {
+                    int undo = scratch.applyMove(moves[m]);
+
+                    scratch.packKey(key, 0);
+                    scratch.undoMove(undo);
+                    if(memory.add(key, 0)) {
+                        arena.add(key, 0, state, moves[m]);
+                    } else {
+                        metrics.duplicates++;
+                    }
+                }
+                metrics.generated += count;
+                metrics.frontier = arena.size() - state;
+                checkMemory(memory.footprint() + arena.footprint());
+            }
+            start = end;
+        }
+        return false;
+    }
+
+    /*
+     * An external-memory Breadth First Search (BFS) solving algorithm.
+     * Returns the shortest solution. Each level is a sorted file of packed
+     * states under SCRATCH_DIR, deduplicated by sort-merge against the two
+     * levels before it (see DiskFrontier), so memory use is one buffer of
+     * states whatever the size of the search. No parent pointers are kept:
+     * the solution is walked back from the goal with walkBack().
+     *
+     * @param currentTray Tray to solve.
+     */
+    private boolean algorithm_7(Tray currentTray)
+    {
+        long[] key = new long[currentTray.keyWidth()];
+        Tray scratch = new Tray(currentTray);
+        int[] moves = new int[currentTray.maxMoves()];
+        int runStates = MEMORY_BUDGET > 0
+            ? (int)Math.min((1 << 28) / key.length, MEMORY_BUDGET / (8L * key.length))
+            : RUN_STATES;
+        DiskFrontier frontier = null;
+
+        try {
+            frontier = new DiskFrontier(new File(SCRATCH_DIR), key.length, runStates);
+            currentTray.packKey(key, 0);
+            frontier.add(key, 0);
+            long size = frontier.finishLevel();
+
+            for(int depth = 0; size > 0; depth++) {
+                long generated = metrics.generated;
+                long read = frontier.bytesRead();
+                long written = frontier.bytesWritten();
+                long nanos = frontier.ioNanos();
+                DiskFrontier.KeyReader level = frontier.open(depth);
+
+                while(level.advance()) {
+                    scratch.unpackKey(level.key, 0);
+                    if(scratch.isGoal()) {
+                        level.close();
+                        Log.info("*** SUCCESS *** Solution Found!\n%s", scratch);
+                        printSolution(walkBack(frontier, scratch, depth));
+                        if(Log.on(Log.BENCH)) {
+                            Log.bench("Disk total: %s", ioReport(
+                                frontier.bytesRead(), frontier.bytesWritten(),
+                                frontier.ioNanos()));
+                        }
+                        return true;
+                    }
+
+                    expandState(scratch, depth);
+                    int count = scratch.legalMoves(moves);
+                    for(int m = 0; m < count; m++) {
+                        int undo = scratch.applyMove(moves[m]);
+                        scratch.packKey(key, 0);
+                        frontier.add(key, 0);
+                        scratch.undoMove(undo);
+                    }
+                    metrics.generated += count;
+                }
+                size = frontier.finishLevel();
+                metrics.duplicates += metrics.generated - generated - size;
+                metrics.frontier = size;
+                if(Log.on(Log.BENCH)) {
+                    Log.bench("Depth %d: frontier %d, %s", depth + 1, size,
+                        ioReport(frontier.bytesRead() - read,
+                            frontier.bytesWritten() - written,
+                            frontier.ioNanos() - nanos));
+                }
+            }
+            return false;
+        } catch(IOException e) {
+            Log.error("External search failed: " + e.getMessage());
+            return false;
+        } finally {
+            if(frontier != null) {
+                frontier.close();
+            }
+        }
+    }
+
+    /*
+     * Walk a solution back from a state of the given level of an external
+     * search to the start. At each level, the neighbour of the current state
+     * found in the level before it (by binary search) is its parent.
+     * Returns the moves from the start, tray is left at the start.
+     *
+     * @param frontier finished levels of the search.
+     * @param tray the state reached, in level depth.
+     * @param depth level of tray.
+     * @throws IOException if a level file cannot be read or has no parent.
+     */
+    private static int[] walkBack(DiskFrontier frontier, Tray tray, int depth)
+        throws IOException
+    {
+        long[] key = new long[tray.keyWidth()];
+        int[] moves = new int[tray.maxMoves()];
+        int[] path = new int[depth];
+
+        for(int d = depth; d > 0; d--) {
+            int count = tray.legalMoves(moves);
+            boolean found = false;
+            for(int m = 0; m < count && !found; m++) {
+                int undo = tray.applyMove(moves[m]);
+                tray.packKey(key, 0);
+                if(frontier.contains(d - 1, key, 0)) {
+                    path[d - 1] = undo;
+                    found = true;
+                } else {
+                    tray.undoMove(undo);
+                }
+            }
+            if(!found) {
+                throw new IOException("No parent found in level " + (d - 1));
+            }
+        }
+        return path;
+    }
+
+    /*
+     * Format an amount of disk traffic and its throughput.
+     *
+     * @param read bytes read.
+     * @param written bytes written.
+     * @param nanos time spent on disk, in nanoseconds.
+     */
+    private static String ioReport(long read, long written, long nanos)
+    {
+        double seconds = Math.max(nanos, 1) / 1e9;
+
+        return String.format(
+            "read %.1f MB, written %.1f MB, %.1f MB/s in %.2f s of I/O",
+            read / 1e6, written / 1e6, (read + written) / 1e6 / seconds, seconds);
+    }
+
+    /*
+     * An A* solving algorithm using the Goal heuristic. Returns the shortest
+     * solution. States are kept packed in a StateArena and the open list is
+     * a heap of (f, arena index) pairs. Since the heuristic is consistent a
+     * state is closed the first time it is popped and never reopened.
+     * Children are made and taken back on one scratch Tray, like
+     * algorithm_2.
+     *
+     * @param currentTray Tray to solve. 
+     */
+    private boolean algorithm_3(Tray currentTray)
+    {
+        Goal goal = new Goal(startingGame, desiredGame);
+        long[] key = new long[currentTray.keyWidth()];
+        StateStore closed = visitedStore(key.length);
+        StateArena arena = new StateArena(key.length);
+        LongHeap open = new LongHeap();
+        int[] cost = new int[1024];
+        Tray scratch = new Tray(currentTray);
+        int[] moves = new int[currentTray.maxMoves()];
+
+        int estimate = goal.estimate(currentTray);
+        if(estimate == Goal.UNREACHABLE) {
+            return false;
+        }
+        currentTray.packKey(key, 0);
+        open.push((long)estimate << 32 | arena.add(key, 0, StateArena.NONE, 0));
+        metrics.watch(closed);
+
+        while(open.size() > 0) {
+            int state = (int)open.pop();
+            if(!closed.add(arena.keys(), arena.offset(state))) {
+                continue;
+            }
+            scratch.unpackKey(arena.keys(), arena.offset(state));
+            if(scratch.isGoal()) {
+                Log.info("*** SUCCESS *** Solution Found!\n%s", scratch);
+                printSolution(arena.path(state));
+                return true;
+            }
+
+            expandState(scratch, cost[state]);
+            int count = scratch.legalMoves(moves);
+            metrics.generated += count;
+            for(int m = 0; m < count; m++) {
+                int undo = scratch.applyMove(moves[m]);
+
+                scratch.packKey(key, 0);
+                if(closed.contains(key, 0)) {
+                    metrics.duplicates++;
+                    scratch.undoMove(undo);
+                    continue;
+                }
+                int child = arena.add(key, 0, state, moves[m]);
+                if(child == cost.length) {
+                    cost = Arrays.copyOf(cost, child + (child >> 1));
+                }
+                cost[child] = cost[state] + 1;
+                open.push((long)(cost[child] + goal.estimate(scratch)) << 32 
+                    | child);
+                scratch.undoMove(undo);
+            }
+            metrics.frontier = open.size();
+            checkMemory(closed.footprint() + arena.footprint()
+                + open.footprint() + 4L * cost.length);
+        }
+        return false;
+    }
+
+    /*
+     * An Iterative Deepening A* (IDA*) solving algorithm using the Goal 
+     * heuristic. Returns the shortest solution while only keeping the
+     * current path in memory, at the price of re-expanding states. Like
+     * algorithm_1 it makes and takes back moves on a single Tray, so
+     * nothing is allocated per expanded state.
+     *
+     * @param currentTray Tray to solve. 
+     */
+    private boolean algorithm_4(Tray currentTray)
+    {
+        Goal goal = new Goal(startingGame, desiredGame);
+        Tray tray = new Tray(currentTray);
+        long[] scratch = new long[tray.keyWidth()];
+        int bound = goal.estimate(tray);
+
+        while(bound != Goal.UNREACHABLE) {
+            Log.bench("Threshold %d: expanded %d so far", bound, expanded);
+            MoveStack stack = new MoveStack(tray);
+            int next = Goal.UNREACHABLE;
+
+            if(tray.isGoal()) {
+                printSolution(stack.path());
+                return true;
+            }
+            expandState(tray, 0);
+            stack.generate(tray);
+
+            while(stack.depth() >= 0) {
+                if(!stack.hasNext()) {
+                    if(stack.depth() > 0) {
+                        tray.undoMove(stack.pop());
+                    } else {
+                        stack.pop();
+                    }
+                    continue;
+                }
+                int undo = tray.applyMove(stack.next());
+                metrics.generated++;
+                if(stack.onPath(tray, scratch)) {
+                    metrics.duplicates++;
+                    tray.undoMove(undo);
+                    continue;
+                }
+                int cost = stack.depth() + 1 + goal.estimate(tray);
+                if(cost > bound) {
+                    next = Math.min(next, cost);
+                    tray.undoMove(undo);
+                    continue;
+                }
+                stack.push(undo, tray);
+                metrics.frontier = stack.depth();
+                if(tray.isGoal()) {
+                    Log.info("*** SUCCESS *** Solution Found!\n%s", tray);
+                    printSolution(stack.path());
+                    return true;
+                }
+                expandState(tray, stack.depth());
+                stack.generate(tray);
+            }
+            bound = next;
+        }
+        return false;
+    }
+
+    /*
+     * A bidirectional Breadth First Search solving algorithm. Returns the
+     * shortest solution. Only usable when the goal names every Block, in
+     * which case a second BFS runs backwards from the goal board and the
+     * smaller frontier is expanded one level at a time until the two meet.
+     * Falls back to algorithm_2 otherwise.
+     * The first meeting found is a shortest one: moves can be undone, so a
+     * state the other side has already expanded has all its neighbours in
+     * that side's visited states, and any meeting through it would have been
+     * found a level earlier. Every meeting of a level therefore adds a state
+     * of this side's new level to one of the other side's frontier.
+     *
+     * @param currentTray Tray to solve. 
+     */
+    private boolean algorithm_5(Tray currentTray)
+    {
+        Goal goal = new Goal(startingGame, desiredGame);
+        int[] goalCells = goal.completion();
+        if(goalCells == null) {
+            Log.info("Goal does not name every block, searching forwards only");
+            return algorithm_2(currentTray);
+        }
+
+        Tray[] scratch = { new Tray(currentTray), new Tray(currentTray) };
+        try {
+            scratch[1].setPositions(goalCells);
+        } catch (IllegalStateException e) {
+            Log.error("Goal configuration is not a valid board");
+            return false;
+        }
+
+        long[] key = new long[currentTray.keyWidth()];
+        int[] moves = new int[currentTray.maxMoves()];
+        StateArena[] arena = {
+            new StateArena(key.length), new StateArena(key.length) };
+        StateStore[] memory = {
+            new OpenStateStore(key.length, 1 << 10, LOAD_FACTOR, 2),
+            new OpenStateStore(key.length, 1 << 10, LOAD_FACTOR, 2) };
+        int[] start = new int[2];
+        int[] depth = new int[2];
+
+        for(int side = 0; side < 2; side++) {
+            scratch[side].packKey(key, 0);
+            arena[side].add(key, 0, StateArena.NONE, 0);
+            memory[side].add(key, 0);
+        }
+        if(memory[0].contains(key, 0)) {
+            printSolution(new int[0]);
+            return true;
+        }
+
+        metrics.watch(memory);
+
+        while(start[0] < arena[0].size() && start[1] < arena[1].size()) {
+            int side = 
+                arena[0].size() - start[0] <= arena[1].size() - start[1] ? 0 : 1;
+            int end = arena[side].size();
+
+            Log.bench("%s depth %d: frontier %d, visited %d",
+                side == 0 ? "Forward" : "Backward", depth[side],
+                end - start[side], memory[0].size() + memory[1].size());
+
+            for(int state = start[side]; state < end; state++) {
+                scratch[side].unpackKey(arena[side].keys(), arena[side].offset(state));
+                expandState(scratch[side], depth[side]);
+                int count = scratch[side].legalMoves(moves);
+                metrics.generated += count;
+                for(int m = 0; m < count; m++) {
+                    int undo = scratch[side].applyMove(moves[m]);
+
+                    scratch[side].packKey(key, 0);
+                    scratch[side].undoMove(undo);
+                    if(!memory[side].add(key, 0)) {
+                        metrics.duplicates++;
+                        continue;
+                    }
+                    int child = arena[side].add(key, 0, state, moves[m]);
+                    if(memory[1 - side].contains(key, 0)) {
+                        int[] meet = new int[2];
+                        meet[side] = child;
+                        meet[1 - side] = arena[1 - side].find(key, 0);
+                        printSolution(joinPaths(arena[0], meet[0], arena[1], meet[1]));
+                        return true;
+                    }
+                }
+                metrics.frontier = arena[side].size() - state;
+                checkMemory(memory[0].footprint() + memory[1].footprint()
+                    + arena[0].footprint() + arena[1].footprint());
+            }
+            start[side] = end;
+            depth[side]++;
+        }
+        return false;
+    }
+
+    /*
+     * A parallel level-synchronous Breadth First Search solving algorithm.
+     * Returns a solution of the same (shortest) length as algorithm_2. Each
+     * level's frontier is cut into ranges that are expanded on a
+     * ForkJoinPool, deduplicating children through a StripedStateStore. 
+     * Every range collects its children in a private StateArena, and the 
+     * private arenas are appended to the shared one in range order once 
+     * the level is done.
+     *
+     * @param currentTray Tray to solve. 
+     */
+    private boolean algorithm_6(Tray currentTray)
+    {
+        long[] key = new long[currentTray.keyWidth()];
+        StateStore memory = 
+            new StripedStateStore(key.length, threads * 16, LOAD_FACTOR);
+        StateArena arena = new StateArena(key.length);
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        AtomicInteger found = new AtomicInteger(Integer.MAX_VALUE);
+        AtomicLong busy = new AtomicLong();
+        AtomicLong generated = new AtomicLong();
+        long began = System.nanoTime();
+
+        currentTray.packKey(key, 0);
+        memory.add(key, 0);
+        arena.add(key, 0, StateArena.NONE, 0);
+        metrics.watch(memory);
+
+        try {
+            for(int depth = 0, start = 0; start < arena.size(); depth++) {
+                int end = arena.size();
+                int chunk = Math.max(64, (end - start) / (threads * 4));
+                long levelBegan = System.nanoTime();
+                List<Expansion> ranges = new ArrayList<Expansion>();
+
+                for(int from = start; from < end; from += chunk) {
+                    ranges.add(new Expansion(currentTray, arena, memory, from,
+                        Math.min(end, from + chunk), found, busy, generated));
+                }
+                List<Future<StateArena>> children = pool.invokeAll(ranges);
+                if(found.get() != Integer.MAX_VALUE) {
+                    expanded += found.get() - start;
+                    Log.info("*** SUCCESS *** Solution Found!");
+                    printSolution(arena.path(found.get()));
+                    reportScaling(began, busy.get());
+                    return true;
+                }
+                for(Future<StateArena> result : children) {
+                    StateArena local = result.get();
+                    for(int i = 0; i < local.size(); i++) {
+                        arena.add(local.keys(), local.offset(i), 
+                            local.parent(i), local.move(i));
+                    }
+                }
+                metrics.expandedAt(depth, end - start);
+                metrics.generated = generated.get();
+                metrics.duplicates = metrics.generated - (arena.size() - 1);
+                metrics.frontier = arena.size() - end;
+                checkMemory(memory.footprint() + arena.footprint());
+                expand(end - start);
+
+                Log.bench("Depth %d: frontier %d, visited %d, %d ms",
+                    depth, end - start, arena.size(),
+                    (System.nanoTime() - levelBegan) / 1000000);
+                start = end;
+            }
+        } catch (InterruptedException e) {
+            Log.error("Parallel search interrupted");
+        } catch (ExecutionException e) {
+            Log.error("Parallel search failed: " + e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        reportScaling(began, busy.get());
+        return false;
+    }
+
+    /*
+     * Print the throughput of a parallel search and how well it used its
+     * threads. The speedup over one thread is measured by Benchmark, which
+     * times the same search with several thread counts.
+     *
+     * @param began System.nanoTime() when the search started.
+     * @param busy nanoseconds spent by all workers expanding states.
+     */
+    private void reportScaling(long began, long busy)
+    {
+        long elapsed = Math.max(1, System.nanoTime() - began);
+        long rate = expanded * 1000000000L / elapsed;
+
+        Log.bench("Parallel search on %d threads: %d nodes/s, %d nodes/s per thread,"
+            + " %d%% of thread time busy", threads, rate, rate / threads,
+            100 * busy / (elapsed * threads));
+    }
+
+    /*
+     * One range of a frontier level, expanded by a worker of algorithm_6.
+     * Returns the new children of the range in a private StateArena whose
+     * parent indices refer to the shared arena. Each worker makes and takes
+     * back moves on its own scratch Tray.
+     */
+    private class Expansion implements Callable<StateArena>
+    {
+        private final Tray model;
+        private final StateArena arena;
+        private final StateStore memory;
+        private final int from, to;
+        private final AtomicInteger found;
+        private final AtomicLong busy, generated;
+
+        Expansion(Tray model, StateArena arena, StateStore memory, int from,
+                int to, AtomicInteger found, AtomicLong busy, AtomicLong generated)
+        {
+            this.model = model;
+            this.arena = arena;
+            this.memory = memory;
+            this.from = from;
+            this.to = to;
+            this.found = found;
+            this.busy = busy;
+            this.generated = generated;
+        }
+
+        @Override
+        public StateArena call()
+        {
+            long began = System.nanoTime();
+            Tray scratch = new Tray(model);
+            long[] key = new long[scratch.keyWidth()];
+            StateArena children = new StateArena(key.length);
+            int[] moves = new int[scratch.maxMoves()];
+            long tried = 0;
+
+            for(int state = from; state < to; state++) {
+                scratch.unpackKey(arena.keys(), arena.offset(state));
+                if(scratch.isGoal()) {
+                    found.accumulateAndGet(state, Math::min);
+                    break;
+                }
+                int count = scratch.legalMoves(moves);
+                tried += count;
+                for(int m = 0; m < count; m++) {
+                    int undo = scratch.applyMove(moves[m]);
+                    scratch.packKey(key, 0);
+                    scratch.undoMove(undo);
+                    if(memory.add(key, 0)) {
+                        children.add(key, 0, state, moves[m]);
+                    }
+                }
+            }
+            generated.addAndGet(tried);
+            busy.addAndGet(System.nanoTime() - began);
+            return children;
+        }
+    }
+
+    /*
+     * Join a forward path and a backward path that end on the same state
+     * into one sequence of moves from the starting Tray to the goal. The
+     * backward moves are reversed by replaying each on the state it was
+     * made from: the undo code applyMove() returns is the reversed move,
+     * indexed for the state it leads back from.
+     *
+     * @param forward arena of the forward search.
+     * @param f index of the meeting state in forward.
+     * @param backward arena of the backward search.
+     * @param b index of the meeting state in backward.
+     */
+    private int[] joinPaths(StateArena forward, int f, StateArena backward, int b)
+    {
+        int[] head = forward.path(f);
+        int[] moves = Arrays.copyOf(head, head.length + backward.path(b).length);
+        Tray behind = new Tray(startingGame);
+
+        for(int n = head.length, j = b; backward.parent(j) != StateArena.NONE; n++) {
+            behind.unpackKey(backward.keys(), backward.offset(backward.parent(j)));
+            moves[n] = behind.applyMove(backward.move(j));
+            j = backward.parent(j);
+        }
+        return moves;
+    }
+
+    /*
+     * Solve the puzzle, going through the -ocache solution cache if there is
+     * one: a verified cached solution is printed without searching, and a
+     * solution found by searching is added to the cache. Solutions of every
+     * algorithm but the default one are shortest, and are kept apart.
+     * A goal that Feasibility proves unreachable is not searched for.
+     * POSTCONDITION: Returns true if a solution is found, false otherwise.
+     */
+    private boolean solveCached()
+    {
+        String unreachable = Feasibility.whyUnreachable(startingGame, desiredGame);
+        if(unreachable != null) {
+            Log.warn("The goal cannot be reached: %s", unreachable);
+            return false;
+        }
+        if(CACHE_DIR == null) {
+            return solvePuzzle(startingGame);
+        }
+        boolean shortest = algorithm >= 2 && algorithm <= 7;
+        SolutionCache cache;
+
+        try {
+            cache = new SolutionCache(new File(CACHE_DIR), CACHE_ENTRIES);
+        } catch(IOException e) {
+            Log.warn("Not using the solution cache: " + e.getMessage());
+            return solvePuzzle(startingGame);
+        }
+
+        int[] cached = cache.lookup(startingGame, desiredGame, shortest);
+        if(cached != null) {
+            Log.info("Found a solution of %d moves in the cache", cached.length);
+            printSolution(cached);
+            return true;
+        }
+        if(!solvePuzzle(startingGame)) {
+            return false;
+        }
+        try {
+            cache.store(startingGame, desiredGame, shortest, solution);
+        } catch(IOException e) {
+            Log.warn("Could not add the solution to the cache: " 
+                + e.getMessage());
+        }
+        return true;
+    }
+
+    /*
+     * Search for a solution without the solution cache, for Benchmark.
+     * Returns the number of moves found, or -1 if there is none.
+     */
+    int search()
+    {
+        return solvePuzzle(startingGame) ? solution.length : -1;
+    }
+
+    /*
+     * Set the number of worker threads of the parallel search, for
+     * Benchmark. Defaults to -othreads.
+     */
+    void setThreads(int threads)
+    {
+        this.threads = threads;
+    }
+
+    /*
+     * Return the number of states expanded so far.
+     */
+    long expanded()
+    {
+        return expanded;
+    }
+
+    /*
+     * Print a solution given as a sequence of move codes from the starting
+     * Tray, and keep it as the solution of this Solver. The moves are only
+     * rendered as text here, through one buffered writer, unless the move
+     * list is suppressed.
+     *
+     * @param moves the moves to print, in order.
+     */
+    private void printSolution(int[] moves)
+    {
+        solution = moves;
+        if(silent) {
+            return;
+        }
+        try {
+            Writer out = new BufferedWriter(new OutputStreamWriter(System.out));
+            startingGame.writeMoves(moves, out);
+            out.flush();
+        } catch (IOException e) {
+            Log.error("Could not write the move list: " + e.getMessage());
+        }
+    }
+
+    /*
+     * Solve every puzzle of a batch manifest on a pool of JOBS threads,
+     * one Solver per puzzle, and print one tab separated result line per
+     * puzzle in manifest order: initial config, goal config, status (solved,
+     * unsolved, stopped by a budget or error), milliseconds, nodes expanded and solution length
+     * (-1 if none). Returns true if every puzzle was solved.
+     *
+     * @param manifest file with one "initial goal [algorithm]" line per
+     * puzzle. Blank lines and lines starting with # are skipped.
+     */
+    private static boolean solveBatch(String manifest)
+    {
+        ArrayList<String[]> puzzles = new ArrayList<String[]>();
+
+        try {
+            BufferedReader in = new BufferedReader(new FileReader(manifest));
+            for(String line = in.readLine(); line != null; line = in.readLine()) {
+                line = line.trim();
+                if(!line.isEmpty() && !line.startsWith("#")) {
+                    puzzles.add(line.split("\\s+"));
+                }
+            }
+            in.close();
+        } catch(IOException e) {
+            Log.error("Could not read the batch manifest: " + e.getMessage());
+            return false;
+        }
+        if(CHECKPOINT_FILE != null || RESUME_FILE != null) {
+            Log.warn("Checkpoints are not taken in batch mode");
+            CHECKPOINT_FILE = null;
+            RESUME_FILE = null;
+        }
+        STORE_POOL = new StorePool(JOBS, POOLED_BYTES, LOAD_FACTOR);
+
+        ExecutorService pool = Executors.newFixedThreadPool(JOBS);
+        ArrayList<Future<String>> results = new ArrayList<Future<String>>();
+        for(final String[] puzzle : puzzles) {
+            results.add(pool.submit(new Callable<String>() {
+                public String call() {
+                    return solveOne(puzzle);
+                }
+            }));
+        }
+        pool.shutdown();
+
+        boolean all = true;
+        System.out.println("#initial\tgoal\tstatus\tms\texpanded\tmoves");
+        for(Future<String> result : results) {
+            String line;
+            try {
+                line = result.get();
+            } catch(InterruptedException | ExecutionException e) {
+                line = "?\t?\terror\t0\t0\t-1";
+            }
+            all = all && line.contains("\tsolved\t");
+            System.out.println(line);
+        }
+        return all;
+    }
+
+    /*
+     * Solve one puzzle of a batch and return its result line.
+     *
+     * @param puzzle initial config, goal config and optionally the algorithm.
+     */
+    private static String solveOne(String[] puzzle)
+    {
+        long began = System.currentTimeMillis();
+        String status = "error";
+        long expanded = 0;
+        int length = -1;
+
+        try {
+            int alg = puzzle.length > 2 ? Integer.parseInt(puzzle[2]) : SOLVER_ALG;
+            Solver game = new Solver(puzzle[0], puzzle[1], alg, true);
+            game.startTime = began;
+            boolean solved = game.solveCached();
+            status = solved ? "solved" : game.stopped != null ? "stopped" : "unsolved";
+            expanded = game.expanded;
+            length = solved ? game.solution.length : -1;
+        } catch(Exception e) {
+            Log.warn("Could not solve " + String.join(" ", puzzle) + ": " + e);
+        }
+        return (puzzle.length > 0 ? puzzle[0] : "?") 
+            + "\t" + (puzzle.length > 1 ? puzzle[1] : "?")
+            + "\t" + status
+            + "\t" + (System.currentTimeMillis() - began)
+            + "\t" + expanded
+            + "\t" + length;
+    }
+
+    /*
+     * Run as a resident solver daemon, answering the requests read from
+     * where: "-" for stdin (answers go to stdout and the daemon stops at the
+     * end of the input), a number for a TCP port on the loopback interface,
+     * or else the path of a Unix domain socket. Each request is solved on
+     * a thread of a cached pool, which reuses idle threads; Java 17 has no
+     * virtual threads. Visited tables are pooled across requests.
+     *
+     * @param where where to take requests from.
+     * @throws IOException if the socket cannot be opened.
+     */
+    private static void serve(String where) throws IOException
+    {
+        final ExecutorService pool = Executors.newCachedThreadPool();
+
+        if(CHECKPOINT_FILE != null || RESUME_FILE != null) {
+            Log.warn("Checkpoints are not taken in daemon mode");
+            CHECKPOINT_FILE = null;
+            RESUME_FILE = null;
+        }
+        STORE_POOL = new StorePool(
+            2 * Runtime.getRuntime().availableProcessors(), POOLED_BYTES,
+            LOAD_FACTOR);
+
+        if(where.equals("-")) {
+            converse(System.in, Channels.newChannel(System.out), pool);
+            pool.shutdown();
+            return;
+        }
+
+        ServerSocketChannel server;
+        if(where.matches("\\d+")) {
+            server = ServerSocketChannel.open();
+            server.bind(new InetSocketAddress(
+                InetAddress.getLoopbackAddress(), Integer.parseInt(where)));
+        } else {
+            server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            server.bind(UnixDomainSocketAddress.of(where));
+            new File(where).deleteOnExit();
+        }
+        Log.info("Solver daemon listening on %s", where);
+        while(true) {
+            final SocketChannel client = server.accept();
+            pool.execute(new Runnable() {
+                public void run() {
+                    try {
+                        converse(Channels.newInputStream(client), client, pool);
+                    } finally {
+                        try {
+                            client.close();
+                        } catch(IOException e) {
+                            Log.warn("Could not close a connection: " + e.getMessage());
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    /*
+     * Read requests, one per line, until the end of input, and hand each
+     * to pool. Answers are written to output as they are ready, so they
+     * may come out of order; each starts with the number of its request.
+     * Returns once every request has been answered. Answers go straight
+     * to the channel rather than through a stream of it, so that writing
+     * one never waits on a read blocked for the next request.
+     *
+     * @param input where requests come from.
+     * @param output where answers go.
+     * @param pool threads to solve on.
+     */
+    private static void converse(InputStream input,
+            final WritableByteChannel output, ExecutorService pool)
+    {
+        BufferedReader in = new BufferedReader(new InputStreamReader(input));
+        ArrayList<Future<?>> pending = new ArrayList<Future<?>>();
+        int requests = 0;
+
+        try {
+            for(String line = in.readLine(); line != null; line = in.readLine()) {
+                line = line.trim();
+                if(line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                final int id = ++requests;
+                final String[] request = line.split("\\s+");
+                pending.add(pool.submit(new Runnable() {
+                    public void run() {
+                        answer(id, request, output);
+                    }
+                }));
+                pending.removeIf(Future::isDone);
+            }
+        } catch(IOException e) {
+            Log.warn("Request stream failed: " + e.getMessage());
+        }
+        for(Future<?> answer : pending) {
+            try {
+                answer.get();
+            } catch(InterruptedException | ExecutionException e) {
+                Log.warn("Request failed: " + e);
+            }
+        }
+    }
+
+    /*
+     * Solve one daemon request and write its answer: a line "seq status
+     * moves ms expanded", where status is solved, unsolved, stopped (by a
+     * budget) or error, followed by one line per move if solved.
+     *
+     * @param id sequence number of the request on its stream.
+     * @param request initial config, goal config, then optionally the
+     * algorithm (as a number or alg=#), time=# (ms) and nodes=# budgets.
+     * @param output where the answer goes.
+     */
+    private static void answer(int id, String[] request, WritableByteChannel output)
+    {
+        long began = System.currentTimeMillis();
+        StringWriter moves = new StringWriter();
+        String status = "error";
+        long expanded = 0;
+        int length = 0;
+
+        try {
+            int alg = SOLVER_ALG;
+            long time = TIME_BUDGET;
+            long nodes = NODE_BUDGET;
+            int macro = MOVE_MODE;
+
+            if(request.length < 2) {
+                throw new IllegalArgumentException("need an initial and a goal config");
+            }
+            for(int k = 2; k < request.length; k++) {
+                String[] option = request[k].split("=", 2);
+                switch(option.length == 1 ? "alg" : option[0]) {
+                    case "alg":
+                        alg = Integer.parseInt(option[option.length - 1]);
+                        break;
+                    case "time":
+                        time = Long.parseLong(option[1]);
+                        break;
+                    case "nodes":
+                        nodes = Long.parseLong(option[1]);
+                        break;
+                    case "macro":
+                        macro = Integer.parseInt(option[1]);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("unknown option " + option[0]);
+                }
+            }
+
+            Solver game = new Solver(request[0], request[1], alg, true);
+            game.timeBudget = time;
+            game.nodeBudget = nodes;
+            game.startingGame.setMoveMode(macro);
+            game.startTime = began;
+            boolean solved = game.solveCached();
+            status = solved ? "solved" : game.stopped != null ? "stopped" : "unsolved";
+            expanded = game.expanded;
+            if(solved) {
+                length = game.startingGame.writeMoves(game.solution, moves);
+            }
+        } catch(Exception e) {
+            Log.warn("Request " + id + " failed: " + e);
+        }
+
+        String answer = id + " " + status + " " + length + " " 
+            + (System.currentTimeMillis() - began) + " " + expanded + "\n" + moves;
+        ByteBuffer bytes = ByteBuffer.wrap(answer.getBytes());
+        synchronized(output) {
+            try {
+                while(bytes.hasRemaining()) {
+                    output.write(bytes);
+                }
+            } catch(IOException e) {
+                Log.warn("Could not answer request " + id + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Program entry point.
+     */
+    public static void main(String[] args)
+    {
+        Solver game = null;
+        int keepGoing = 0;
+        
+        try { 
+            keepGoing = processArgs(args); 
+        } catch (NullPointerException e) { 
+            Log.error("Not enough arguments"); 
+        }
+
+        if(keepGoing < 0) {
+            System.exit(-1);
+        }
+
+        if(BATCH_FILE != null) {
+            System.exit(solveBatch(BATCH_FILE) ? 0 : -1);
+        }
+        if(SERVE != null) {
+            try {
+                serve(SERVE);
+            } catch(IOException e) {
+                Log.error("Could not start the daemon: " + e.getMessage());
+                System.exit(-1);
+            }
+            System.exit(0);
+        }
+
+        try { 
+            game = new Solver(startingConfig, endingConfig); 
+        } catch (Exception e) {
+            Log.error("Something went horribly wrong :(");
+            System.exit(-1);
+        }
+
+        game.startTime = System.currentTimeMillis();
+        boolean solved = game.solveCached();
+        Log.bench("Expanded %d nodes", game.expanded);
+        if(!solved) {
+            Log.warn("***** SORRY ****** Could not find a solution");
+
+            Log.bench("Elapsed time: %d seconds",
+                (System.currentTimeMillis() - game.startTime) / 1000);
+            System.exit(-1);
+        }
 
-        dPrint(BENCH, timeString);
+        Log.bench("Solved the puzzle in %d seconds",
+            (System.currentTimeMillis() - game.startTime) / 1000);
         System.exit(0);
     } // End of main
 } // End of Solver class
@@ -0,0 +1,152 @@
+import java.util.*;
+
+/*
+ * The StateArena class.
+ * Append-only storage for search states. Each state is its packed key plus
+ * the index of the state it was reached from and the move that reached it,
+ * all kept in flat primitive arrays. A state is referred to by its index
+ * in the arena, so a search tree costs a few words per node instead of a
+ * Tray per node.
+ *
+ * @see Tray#packKey(long[], int)
+ */
+class StateArena
+{
+    final static int NONE = -1;
+
+    private final int width;
+    private long[] keys;
+    private int[] parents;
+    private int[] moves;
+    private int size;
+
+    /*
+     * Constructor.
+     *
+     * @param width number of longs in each key.
+     */
+    public StateArena(int width)
+    {
+        this.width = width;
+        keys = new long[1024 * width];
+        parents = new int[1024];
+        moves = new int[1024];
+    }
+
+    /*
+     * Append a state to the arena and return its index.
+     *
+     * @param key array holding the packed key.
+     * @param offset index of the first word of the key in key.
+     * @param parent index of the state this one was reached from, or NONE.
+     * @param move move that reached this state from parent.
+     */
+    public int add(long[] key, int offset, int parent, int move)
+    {
+        if(size == parents.length) {
+            int capacity = size + (size >> 1);
+            keys = Arrays.copyOf(keys, capacity * width);
+            parents = Arrays.copyOf(parents, capacity);
+            moves = Arrays.copyOf(moves, capacity);
+        }
+        System.arraycopy(key, offset, keys, size * width, width);
+        parents[size] = parent;
+        moves[size] = move;
+        return size++;
+    }
+
+    /*
+     * Return the array holding every key. The key of state i starts at
+     * offset(i). The array may be replaced when the arena grows.
+     */
+    public long[] keys()
+    {
+        return keys;
+    }
+
+    /*
+     * Return the offset of the key of state i in keys().
+     */
+    public int offset(int i)
+    {
+        return i * width;
+    }
+
+    /*
+     * Return the index of the state that state i was reached from.
+     */
+    public int parent(int i)
+    {
+        return parents[i];
+    }
+
+    /*
+     * Return the move that reached state i.
+     */
+    public int move(int i)
+    {
+        return moves[i];
+    }
+
+    /*
+     * Return the sequence of moves that leads from the root to state i.
+     */
+    public int[] path(int i)
+    {
+        int length = 0;
+
+        for(int j=i; parents[j] != NONE; j=parents[j]) {
+            length++;
+        }
+        int[] path = new int[length];
+        for(int j=i; parents[j] != NONE; j=parents[j]) {
+            path[--length] = moves[j];
+        }
+        return path;
+    }
+
+    /*
+     * Return the index of the first state with the given key, or NONE. This
+     * is a linear scan, meant for one-off lookups.
+     *
+     * @param key array holding the packed key.
+     * @param offset index of the first word of the key in key.
+     */
+    public int find(long[] key, int offset)
+    {
+        for(int i=0; i<size; i++) {
+            boolean same = true;
+            for(int w=0; w<width && same; w++) {
+                same = keys[i * width + w] == key[offset + w];
+            }
+            if(same) {
+                return i;
+            }
+        }
+        return NONE;
+    }
+
+    /*
+     * Return the number of states in the arena.
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /*
+     * Remove every state, keeping the arrays for the states to come.
+     */
+    public void clear()
+    {
+        size = 0;
+    }
+
+    /*
+     * Return the approximate number of bytes held by the arena.
+     */
+    public long footprint()
+    {
+        return 8L * keys.length + 4L * parents.length + 4L * moves.length;
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * The StateStore interface.
+ * A set of visited search states. States are identified by their packed
+ * key, a fixed number of longs produced by Tray.packKey(). Keys are passed
+ * as a slice of a caller owned array so that no per-state objects are
+ * needed on either side of the interface.
+ *
+ * @see Tray#packKey(long[], int)
+ */
+interface StateStore
+{
+    /*
+     * Add a state to the store.
+     * Returns true if the state was not already present.
+     *
+     * @param key array holding the packed key.
+     * @param offset index of the first word of the key in key.
+     */
+    boolean add(long[] key, int offset);
+
+    /*
+     * Returns true if the state is present in the store.
+     *
+     * @param key array holding the packed key.
+     * @param offset index of the first word of the key in key.
+     */
+    boolean contains(long[] key, int offset);
+
+    /*
+     * Return the number of states in the store.
+     */
+    int size();
+
+    /*
+     * Return the approximate number of bytes held by the store.
+     */
+    long footprint();
+
+    /*
+     * Remove every state from the store.
+     */
+    void clear();
+}
@@ -0,0 +1,70 @@
+import java.util.*;
+
+/*
+ * The StorePool class.
+ * A pool of emptied OpenStateStores for a resident solver, so that each
+ * search starts with a table that has already grown to a useful size
+ * instead of allocating and regrowing a fresh one. Stores larger than
+ * maxBytes are not kept, so one huge puzzle does not pin its table for
+ * good. Thread safe.
+ */
+class StorePool
+{
+    private final int maxIdle;
+    private final long maxBytes;
+    private final float loadFactor;
+    private final ArrayDeque<OpenStateStore> idle = new ArrayDeque<OpenStateStore>();
+
+    /*
+     * Constructor.
+     *
+     * @param maxIdle most stores kept waiting to be borrowed.
+     * @param maxBytes largest footprint of a store worth keeping.
+     * @param loadFactor load factor of the stores created.
+     */
+    public StorePool(int maxIdle, long maxBytes, float loadFactor)
+    {
+        this.maxIdle = maxIdle;
+        this.maxBytes = maxBytes;
+        this.loadFactor = loadFactor;
+    }
+
+    /*
+     * Return an empty store for keys of the given width, pooled if one is
+     * idle.
+     *
+     * @param width number of longs in each key.
+     */
+    public OpenStateStore borrow(int width)
+    {
+        synchronized(this) {
+            Iterator<OpenStateStore> stores = idle.iterator();
+            while(stores.hasNext()) {
+                OpenStateStore store = stores.next();
+                if(store.width() == width) {
+                    stores.remove();
+                    return store;
+                }
+            }
+        }
+        return new OpenStateStore(width, 1 << 10, loadFactor, 2);
+    }
+
+    /*
+     * Give a store back to the pool. The caller must not use it again.
+     *
+     * @param store a store from borrow().
+     */
+    public void release(OpenStateStore store)
+    {
+        if(store.footprint() > maxBytes) {
+            return;
+        }
+        store.clear();
+        synchronized(this) {
+            if(idle.size() < maxIdle) {
+                idle.push(store);
+            }
+        }
+    }
+}
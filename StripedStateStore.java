@@ -0,0 +1,99 @@
+/*
+ * The StripedStateStore class.
+ * A StateStore that may be shared between threads. Keys are spread over a
+ * fixed number of OpenStateStore stripes by hash, and each stripe is
+ * guarded by its own lock, so threads only contend when they hit the same
+ * stripe.
+ */
+class StripedStateStore implements StateStore
+{
+    private final OpenStateStore[] stripes;
+    private final int width;
+
+    /*
+     * Constructor.
+     *
+     * @param width number of longs in each key.
+     * @param stripes number of stripes. Rounded up to a power of two.
+     * @param loadFactor load factor of each stripe.
+     */
+    public StripedStateStore(int width, int stripes, float loadFactor)
+    {
+        int count = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+
+        this.width = width;
+        this.stripes = new OpenStateStore[count];
+        for(int i=0; i<count; i++) {
+            this.stripes[i] = new OpenStateStore(width, 1 << 8, loadFactor, 2);
+        }
+    }
+
+    /*
+     * Return the stripe responsible for the key.
+     */
+    private OpenStateStore stripe(long[] key, int offset)
+    {
+        long h = 0;
+
+        for(int i=0; i<width; i++) {
+            h = (h + key[offset + i]) * 0xC6BC279692B5C323L;
+        }
+        return stripes[(int)(h >>> 40) & (stripes.length - 1)];
+    }
+
+    @Override
+    public boolean add(long[] key, int offset)
+    {
+        OpenStateStore stripe = stripe(key, offset);
+
+        synchronized (stripe) {
+            return stripe.add(key, offset);
+        }
+    }
+
+    @Override
+    public boolean contains(long[] key, int offset)
+    {
+        OpenStateStore stripe = stripe(key, offset);
+
+        synchronized (stripe) {
+            return stripe.contains(key, offset);
+        }
+    }
+
+    @Override
+    public int size()
+    {
+        int size = 0;
+
+        for(OpenStateStore stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public long footprint()
+    {
+        long bytes = 0;
+
+        for(OpenStateStore stripe : stripes) {
+            synchronized (stripe) {
+                bytes += stripe.footprint();
+            }
+        }
+        return bytes;
+    }
+
+    @Override
+    public void clear()
+    {
+        for(OpenStateStore stripe : stripes) {
+            synchronized (stripe) {
+                stripe.clear();
+            }
+        }
+    }
+}
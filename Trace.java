@@ -0,0 +1,63 @@
+import java.io.*;
+
+/*
+ * The Trace class.
+ * A ring buffer of the last states expanded by a search, for -otrace.
+ * Recording one is three array stores, with no formatting and no I/O, so
+ * a trace can stay on for a whole search; the buffer is only printed, in
+ * order, once the search is over.
+ */
+class Trace
+{
+    private final long[] ring;
+    private long recorded;
+
+    /*
+     * Constructor.
+     *
+     * @param capacity number of expansions kept, the most recent ones.
+     * @throws IllegalArgumentException if capacity is not positive.
+     */
+    public Trace(int capacity) throws IllegalArgumentException
+    {
+        if(capacity < 1) {
+            throw new IllegalArgumentException("Trace needs room for an entry");
+        }
+        ring = new long[3 * capacity];
+    }
+
+    /*
+     * Record the expansion of a state.
+     *
+     * @param expanded number of states expanded before this one.
+     * @param depth depth of the state.
+     * @param hash 64 bit hash of the state.
+     */
+    public void record(long expanded, int depth, long hash)
+    {
+        int slot = (int)(recorded++ % (ring.length / 3)) * 3;
+
+        ring[slot] = expanded;
+        ring[slot + 1] = depth;
+        ring[slot + 2] = hash;
+    }
+
+    /*
+     * Print the expansions kept, oldest first, one per line.
+     *
+     * @param out where to print.
+     */
+    public void dump(PrintStream out)
+    {
+        int capacity = ring.length / 3;
+        long first = Math.max(0, recorded - capacity);
+
+        out.println("Trace of the last " + (recorded - first) + " of "
+            + recorded + " expansions (expanded, depth, state):");
+        for(long r = first; r < recorded; r++) {
+            int slot = (int)(r % capacity) * 3;
+            out.println(String.format("%12d %6d %016x",
+                ring[slot], ring[slot + 1], ring[slot + 2]));
+        }
+    }
+}
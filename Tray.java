@@ -1,214 +1,681 @@
 import java.io.*;
 import java.util.*;
 
-/* 
- * The Tray class. 
+/*
+ * The Tray class.
  * This class implements the game's tray that will house Blocks
  *
+ * The state of a Tray is kept in three primitive structures:
+ *  - occupied: a bitboard with one bit per cell (bit r*colCount + c).
+ *  - owner: the dense id (index + 1) of the Block covering each cell, or
+ *    EMPTY, so looking up the Block at a cell is one array access.
+ *  - position: the packed cell index (r*colCount + c) of the top left corner
+ *    of each Block, indexed by block.
+ * What does not change once a Tray has been read in lives in an immutable
+ * Shapes table shared by every Tray copied from it: the shape of each Block
+ * and the dimensions and Zobrist keys of each shape.
+ *
+ * Blocks of the same dimensions are interchangeable, so a Tray is always
+ * kept in canonical form: Blocks are grouped into shape classes by their
+ * dimensions, and within a class the positions are kept in increasing
+ * order. Two Trays showing the same board therefore have the same position
+ * array and the same packed key, whichever Block went where. Note that
+ * this means a Block's index may change when it moves.
+ *
+ * Each Tray also carries a Zobrist hash: the XOR of one random key per
+ * (block dimensions, position) pair. Moving a Block XORs its old key out
+ * and its new key in, so a successor's hash costs O(1).
+ *
+ * Once setGoal() has been called, a Tray also tracks how many goal targets
+ * are still uncovered, against one bitmask of target cells per shape class.
+ * A move only tests its old and new cell against the mask of its shape, so
+ * isGoal() is a single comparison.
+ *
+ * Moves are generated in one of three modes, see setMoveMode(): single
+ * cell steps, slides of any length in a straight line, or slides that may
+ * also turn one corner. Whatever the mode, a move is one transition of the
+ * search, and writeMoves() prints it one cell at a time.
+ *
  * @see Block class for further documentation.
  */
 class Tray implements Iterable<Tray.Block>
 {
     private int rowCount, colCount;
-    private int[][] grid;
-    private String changeFromPrevious;
-    private ArrayList<Block> db;
-    private Tray previousTray;
+    private Shapes shapes;
+    private long[] occupied;
+    private int[] owner;
+    private int[] position;
+    private long hash;
+    private long[][] goalMask;
+    private int goalSize, goalMissing;
+    private String badBlock;
+    private int moveMode = STEPS;
+    private int[] reached;
+    private int stamp;
     private final static int EMPTY = 0;
-  
-    /* 
+
+    /* Move generation modes, see setMoveMode(). */
+    final static int STEPS = 0, SLIDES = 1, TURNS = 2;
+
+    /* Longest straight slide, and longest leg of a slide that turns. Both
+       legs of a turn are capped by the 6 bit field of the second leg, so
+       its reverse, with the legs swapped, is a move too. */
+    private final static int MAX_LEG = 64, MAX_TURN = 63;
+
+    /* Direction codes, used by move codes in place of direction strings. */
+    final static int UP = 0, DOWN = 1, LEFT = 2, RIGHT = 3;
+
+    /* Not a move: it would turn up after going up. Move codes of long
+       turns are negative, so none can stand for "no move" but this. */
+    final static int NO_MOVE = Integer.MIN_VALUE;
+
+    /* Valid directions for moveBlock(), indexed by direction code. */
+    final static String[] DIRECTIONS = {"u", "d", "l", "r"};
+
+    /* Row and column offset of one step in each direction. */
+    final static int[] ROW_STEP = {-1, 1, 0, 0};
+    final static int[] COL_STEP = {0, 0, -1, 1};
+
+    /*
      * Tray constructor.
      *
-     * @param inScanner Scanner to read Tray in from. 
+     * @param inScanner Scanner to read Tray in from.
      */
     public Tray(Scanner inScanner)
 	{
         this(inScanner.nextInt(), inScanner.nextInt(), inScanner);
     }
-  
+
     /*
      * Tray constructor.
      *
      * @param row Number of rows in this Tray.
      * @param col Number of columns in this Tray.
-     * @param inScanner Scanner to read config of tray from. 
-     */ 
+     * @param inScanner Scanner to read config of tray from.
+     */
     public Tray(int row, int col, Scanner inScanner)
 	{
         colCount = col;
         rowCount = row;
-        db = new ArrayList<Block>();
-        changeFromPrevious = new String();
+        ArrayList<int[]> read = new ArrayList<int[]>();
 
         while(inScanner.hasNext()) {
-            db.add(
-                new Block(
-                    inScanner.nextInt(),
-                    inScanner.nextInt(),
-                    inScanner.nextInt(),
-                    inScanner.nextInt()
-                )
-            );
+            read.add(new int[] {
+                inScanner.nextInt(),
+                inScanner.nextInt(),
+                inScanner.nextInt(),
+                inScanner.nextInt()
+            });
         }
 
-        if(!isOkay()) { 
-            Solver.dPrint(Solver.ERROR, "** Tray Corrupted, exiting **");
+        Collections.sort(read, new Comparator<int[]>() {
+            public int compare(int[] a, int[] b) {
+                for(int k=0; k<a.length; k++) {
+                    if(a[k] != b[k]) {
+                        return a[k] < b[k] ? -1 : 1;
+                    }
+                }
+                return 0;
+            }
+        });
+
+        for(int[] b : read) {
+            if(badBlock == null && (b[0] < 1 || b[1] < 1 || b[2] < 0 || b[3] < 0
+                    || b[2] + b[0] > rowCount || b[3] + b[1] > colCount)) {
+                badBlock = "block " + b[0] + "x" + b[1] + " at (" + b[2] + ","
+                    + b[3] + ") does not fit the " + rowCount + "x" + colCount
+                    + " tray";
+            }
+        }
+
+        shapes = new Shapes(read, rowCount*colCount);
+        position = new int[read.size()];
+        for(int i=0; i<read.size(); i++) {
+            position[i] = read.get(i)[2]*colCount + read.get(i)[3];
+        }
+        rehash();
+
+        if(!isOkay()) {
+            Log.error("** Tray Corrupted, exiting **");
         }
     }
- 
+
     /*
-     * Copy constructor
+     * Copy constructor. The Shapes table is shared with source, only the
+     * position array, the bitboard and the owner grid are copied.
      *
      * @param source Tray to copy from.
      */
     public Tray(Tray source)
 	{
         rowCount = source.rowCount;
-        previousTray = source.previousTray;
-        changeFromPrevious = source.changeFromPrevious;
         colCount = source.colCount;
-        db = new ArrayList<Block>();
-        
-        for(Block item : source.db) {
-            db.add(new Block(item));
-        }
-        
-        if(!isOkay()) { 
-            Solver.dPrint(Solver.ERROR, "** Tray Corrupted, exiting **");
-        }
+        shapes = source.shapes;
+        hash = source.hash;
+        goalMask = source.goalMask;
+        goalSize = source.goalSize;
+        goalMissing = source.goalMissing;
+        badBlock = source.badBlock;
+        moveMode = source.moveMode;
+        position = source.position.clone();
+        occupied = source.occupied.clone();
+        owner = source.owner.clone();
     }
-   
+
     /*
      * Return the number of rows of this Tray.
-     */ 
+     */
     public int getRows()
-	{ 
-        return rowCount; 
+	{
+        return rowCount;
     }
 
     /*
      * Return the number of columns of this Tray.
      */
-    public int getCols() 
-    { 
-        return colCount; 
+    public int getCols()
+    {
+        return colCount;
     }
 
     /*
      * Return the number of Blocks in the Tray.
      */
     public int numBlocks()
-	{ 
-        return db.size(); 
+	{
+        return position.length;
     }
 
     /*
-     * Checks the Tray for consistency. 
-     * Returns true if the current Tray is 
-     * in a valid state. That is, all Blocks are within 
-     * the Tray's boundaries. 
-     *
-     * @throws IllegalStateException
+     * Return the number of rows spanned by Block i.
+     */
+    public int blockRows(int i)
+    {
+        return shapes.rows[shapes.shapeOf[i]];
+    }
+
+    /*
+     * Return the number of columns spanned by Block i.
      */
-    public boolean isOkay() throws IllegalStateException 
+    public int blockCols(int i)
+    {
+        return shapes.cols[shapes.shapeOf[i]];
+    }
+
+    /*
+     * Return the shape class of Block i. Blocks with the same shape class
+     * have the same dimensions and form a contiguous range of indices.
+     */
+    public int blockShape(int i)
+    {
+        return shapes.shapeOf[i];
+    }
+
+    /*
+     * Return the packed position (row*getCols() + col) of Block i.
+     */
+    public int blockPosition(int i)
+    {
+        return position[i];
+    }
+
+    /*
+     * Checks the Tray for consistency.
+     * Returns true if the current Tray is
+     * in a valid state. That is, all Blocks are within
+     * the Tray's boundaries and no two Blocks overlap.
+     */
+    public boolean isOkay()
     {
         try {
             reDraw();
-        } catch (ArrayIndexOutOfBoundsException e) { 
-            return false; 
+        } catch (IllegalStateException e) {
+            return false;
         }
-        return true;
+        return badBlock == null;
     }
-    
+
     /*
-     * Sets the pointer to the Tray from which this Tray was created.
+     * Return what makes this Tray invalid, a Block outside the Tray or two
+     * Blocks that overlap, or null if it is valid.
      */
-    public void setPreviousTray(Tray p)
-	{ 
-        previousTray = p; 
+    public String problem()
+    {
+        int[] seen = new int[rowCount*colCount];
+
+        if(badBlock != null) {
+            return badBlock;
+        }
+        for(int i=0; i<position.length; i++) {
+            for(int r=0; r<blockRows(i); r++) {
+                for(int c=0; c<blockCols(i); c++) {
+                    int cell = position[i] + r*colCount + c;
+                    if(seen[cell] != EMPTY) {
+                        int j = seen[cell] - 1;
+                        return "blocks at (" + position[j] / colCount + ","
+                            + position[j] % colCount + ") and ("
+                            + position[i] / colCount + "," + position[i] % colCount
+                            + ") overlap";
+                    }
+                    seen[cell] = i + 1;
+                }
+            }
+        }
+        return null;
     }
 
     /*
      * Overriden hashCode() implementation. Must return the same
      * value if no changes made and must agree with equals() as
-     * per symatics.
+     * per symatics. The Zobrist keys only depend on a Block's dimensions
+     * and position, so same-shaped Blocks are interchangeable here just as
+     * they are in equals().
      */
     @Override
     public int hashCode()
 	{
-        String hashValue = "";
-        
-        for(int r=0; r<rowCount; r++) {
-            for(int c=0; c<colCount; c++) {
-                if(grid[r][c] != EMPTY) {
-                    hashValue += getBlock(grid[r][c]);
-                } else { 
-                    hashValue += "seed";
+        return (int)(hash ^ (hash >>> 32));
+    }
+
+    /*
+     * Return the full 64 bit Zobrist hash of this Tray.
+     */
+    public long longHash()
+    {
+        return hash;
+    }
+
+    /*
+     * Return the number of bits needed to store one packed position.
+     */
+    private int positionBits()
+    {
+        return Math.max(1, 32 - Integer.numberOfLeadingZeros(rowCount*colCount - 1));
+    }
+
+    /*
+     * Return the number of longs written by packKey(), at least one even
+     * for a Tray without Blocks, so that every store can hold its key.
+     */
+    public int keyWidth()
+    {
+        int perWord = 64 / positionBits();
+        return Math.max(1, (position.length + perWord - 1) / perWord);
+    }
+
+    /*
+     * Write the packed key of this Tray: the position of every Block, in
+     * block order, positionBits() bits each. A position never straddles two
+     * words.
+     *
+     * @param dst array to write the key to.
+     * @param offset index of the first word to write.
+     */
+    public void packKey(long[] dst, int offset)
+    {
+        packKey(position, dst, offset);
+    }
+
+    /*
+     * Write the packed key of an arbitrary position array, in the same
+     * format as packKey(long[], int).
+     *
+     * @param positions one packed position per Block of this Tray.
+     * @param dst array to write the key to.
+     * @param offset index of the first word to write.
+     */
+    void packKey(int[] positions, long[] dst, int offset)
+    {
+        int bits = positionBits();
+        int perWord = 64 / bits;
+
+        if(positions.length == 0) {
+            dst[offset] = 0;
+        }
+        for(int w=0, i=0; i<positions.length; w++) {
+            long word = 0;
+            for(int k=0; k<perWord && i<positions.length; k++, i++) {
+                word |= (long)positions[i] << (k * bits);
+            }
+            dst[offset + w] = word;
+        }
+    }
+
+    /*
+     * Overwrite the position of every Block with the ones stored in a packed
+     * key, as written by packKey() on a Tray with the same Blocks.
+     *
+     * @param src array holding the key.
+     * @param offset index of the first word of the key.
+     */
+    public void unpackKey(long[] src, int offset)
+    {
+        int bits = positionBits();
+        int perWord = 64 / bits;
+        long fieldMask = (1L << bits) - 1;
+
+        for(int w=0, i=0; i<position.length; w++) {
+            long word = src[offset + w];
+            for(int k=0; k<perWord && i<position.length; k++, i++) {
+                position[i] = (int)((word >>> (k * bits)) & fieldMask);
+            }
+        }
+        rehash();
+        reDraw();
+    }
+
+    /*
+     * Move every Block to the given positions at once, in any order within
+     * each shape class: each class is sorted back into canonical order.
+     *
+     * @param cells one packed position per Block.
+     * @throws IllegalStateException if the result is not a valid Tray.
+     */
+    public void setPositions(int[] cells) throws IllegalStateException
+    {
+        owner = null;
+        for(int i=0; i<position.length; i++) {
+            position[i] = cells[i];
+        }
+        for(int s=0; s<shapes.first.length; s++) {
+            Arrays.sort(position, shapes.first[s], shapes.last[s]);
+        }
+        rehash();
+        reDraw();
+    }
+
+    /*
+     * Recompute the Zobrist hash and the number of uncovered goal targets of
+     * the current position from scratch.
+     */
+    private void rehash()
+    {
+        int cells = rowCount*colCount;
+
+        hash = 0;
+        goalMissing = goalSize;
+        for(int i=0; i<position.length; i++) {
+            if(position[i] >= 0 && position[i] < cells) {
+                hash ^= shapes.zobrist[shapes.shapeOf[i]][position[i]];
+                goalMissing -= isTarget(i, position[i]);
+            }
+        }
+    }
+
+    /*
+     * Choose the moves legalMoves() produces, for this Tray and the Trays
+     * copied from it afterwards:
+     *  - STEPS: a Block moves one cell.
+     *  - SLIDES: a Block slides any number of cells in a straight line.
+     *  - TURNS: as SLIDES, or slides then turns one corner and slides on.
+     * A straight slide is at most MAX_LEG cells long, and each leg of a
+     * slide that turns at most MAX_TURN; longer slides take more than one
+     * move.
+     *
+     * @param mode STEPS, SLIDES or TURNS.
+     * @throws IllegalArgumentException if mode is none of them.
+     */
+    public void setMoveMode(int mode) throws IllegalArgumentException
+    {
+        if(mode < STEPS || mode > TURNS) {
+            throw new IllegalArgumentException("Unknown move mode " + mode);
+        }
+        moveMode = mode;
+    }
+
+    /*
+     * Return the move generation mode of this Tray, see setMoveMode().
+     */
+    public int moveMode()
+    {
+        return moveMode;
+    }
+
+    /*
+     * Compile desired into one bitmask of target cells per shape class of
+     * this Tray, for isGoal(). Trays copied from this one afterwards share
+     * the masks. A goal Block whose shape is not in this Tray can never be
+     * covered, so such a goal is never reached.
+     *
+     * @param desired the goal Tray, possibly naming only some Blocks.
+     */
+    public void setGoal(Tray desired)
+    {
+        int cells = rowCount*colCount;
+
+        goalMask = new long[shapes.rows.length][];
+        goalSize = 0;
+        for(int j=0; j<desired.position.length; j++) {
+            int cell = desired.position[j];
+            int shape = -1;
+            for(int s=0; s<shapes.rows.length; s++) {
+                if(shapes.rows[s] == desired.blockRows(j)
+                        && shapes.cols[s] == desired.blockCols(j)) {
+                    shape = s;
+                }
+            }
+            if(shape < 0 || cell < 0 || cell >= cells) {
+                goalSize++;
+                continue;
+            }
+            if(goalMask[shape] == null) {
+                goalMask[shape] = new long[(cells + 63) >>> 6];
+            }
+            if((goalMask[shape][cell >>> 6] & (1L << cell)) == 0) {
+                goalMask[shape][cell >>> 6] |= 1L << cell;
+                goalSize++;
+            }
+        }
+        rehash();
+    }
+
+    /*
+     * Returns true if every Block of the goal given to setGoal() is matched
+     * by a Block of the same shape at the same position. Same answer as
+     * equals(desired), in O(1).
+     */
+    public boolean isGoal()
+    {
+        return goalMask != null && goalMissing == 0;
+    }
+
+    /*
+     * Returns 1 if cell is a goal target for the shape of Block i, else 0.
+     *
+     * @param i index of the Block.
+     * @param cell packed cell index.
+     */
+    private int isTarget(int i, int cell)
+    {
+        if(goalMask == null) {
+            return 0;
+        }
+        long[] mask = goalMask[shapes.shapeOf[i]];
+        return mask != null && (mask[cell >>> 6] & (1L << cell)) != 0 ? 1 : 0;
+    }
+
+    /*
+     * SplitMix64 finalizer, used to derive the Zobrist keys.
+     */
+    private static long mix(long z)
+    {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /*
+     * Move Block i to the given cell, keeping the bitboard and the hash in
+     * step. The caller is responsible for checking the move is legal.
+     *
+     * @param i index of the Block.
+     * @param cell packed cell index of the new top left corner.
+     */
+    private int place(int i, int cell)
+    {
+        long[] keys = shapes.zobrist[shapes.shapeOf[i]];
+
+        paint(i, EMPTY);
+        hash ^= keys[position[i]] ^ keys[cell];
+        goalMissing += isTarget(i, position[i]) - isTarget(i, cell);
+        position[i] = cell;
+        i = settle(i);
+        paint(i, i + 1);
+        return i;
+    }
+
+    /*
+     * Restore canonical order after the position of Block i changed, by
+     * shifting it to its place among the Blocks of its shape class. The
+     * Zobrist rows of a class are shared, so the hash is unaffected. The
+     * owner grid is relabelled for every other Block that shifts; the moved
+     * Block's own cells are left for the caller to paint.
+     * Returns the new index of the Block.
+     *
+     * @param i index of the Block that moved.
+     */
+    private int settle(int i)
+    {
+        int cell = position[i];
+        int shape = shapes.shapeOf[i];
+        boolean drawn = owner != null;
+
+        while(i > shapes.first[shape] && position[i-1] > cell) {
+            position[i] = position[i-1];
+            if(drawn) {
+                label(i, i + 1);
+            }
+            i--;
+        }
+        while(i+1 < shapes.last[shape] && position[i+1] < cell) {
+            position[i] = position[i+1];
+            if(drawn) {
+                label(i, i + 1);
+            }
+            i++;
+        }
+        position[i] = cell;
+        return i;
+    }
+
+    /*
+     * Overrites the bitboard and the owner grid with the most current
+     * information stored in the position array.
+     *
+     * @throws IllegalStateException if a Block is out of bounds or overlaps
+     * another Block.
+     */
+    private void reDraw() throws IllegalStateException
+    {
+        occupied = new long[(rowCount*colCount + 63) >>> 6];
+        owner = new int[rowCount*colCount];
+
+        for(int i=0; i<position.length; i++) {
+            int row = position[i] / colCount;
+            int col = position[i] % colCount;
+            boolean inBounds =
+                row >= 0 && col >= 0
+                && row + blockRows(i) <= rowCount
+                && col + blockCols(i) <= colCount;
+
+            if(!inBounds) {
+                throw new IllegalStateException();
+            }
+            for(int r=0; r<blockRows(i); r++) {
+                for(int c=0; c<blockCols(i); c++) {
+                    int cell = position[i] + r*colCount + c;
+                    if(owner[cell] != EMPTY) {
+                        throw new IllegalStateException();
+                    }
+                    owner[cell] = i + 1;
+                    occupied[cell >>> 6] |= 1L << cell;
                 }
             }
         }
-        return hashValue.hashCode();
     }
-   
+
     /*
-     * Overrites grid with the most current information stored in the database.
+     * Returns true if the given cell of the bitboard is taken by a Block.
      *
-     * @throws ArrayIndexOutOfBoundsException
+     * @param cell packed cell index r*colCount + c.
      */
-    private void reDraw() throws ArrayIndexOutOfBoundsException 
+    private boolean isOccupied(int cell)
     {
-        grid = new int[rowCount][colCount];
-        
-        for(Block b : db) {
-            for(int r=0; r<b.getNumRows(); r++) {
-                for(int c=0; c<b.getNumCols(); c++) {
-                    grid[b.getr() + r][b.getc() + c] = b.getId();
+        return (occupied[cell >>> 6] & (1L << cell)) != 0;
+    }
+
+    /*
+     * Mark the cells covered by Block i at its current position as owned by
+     * id in the owner grid, and as taken in the bitboard unless id is EMPTY.
+     *
+     * @param i index of the Block.
+     * @param id dense id to store, or EMPTY to clear the cells.
+     */
+    private void paint(int i, int id)
+    {
+        int rows = blockRows(i);
+        int cols = blockCols(i);
+
+        for(int r=0; r<rows; r++) {
+            for(int c=0; c<cols; c++) {
+                int cell = position[i] + r*colCount + c;
+                owner[cell] = id;
+                if(id == EMPTY) {
+                    occupied[cell >>> 6] &= ~(1L << cell);
+                } else {
+                    occupied[cell >>> 6] |= 1L << cell;
                 }
             }
         }
     }
 
     /*
-     * Checks for equality of this Tray and rvalue. 
-     * Returns true iff their hashCode()'s are equal. 
+     * Relabel the cells covered by Block i in the owner grid only.
+     *
+     * @param i index of the Block.
+     * @param id dense id to store.
+     */
+    private void label(int i, int id)
+    {
+        int rows = blockRows(i);
+        int cols = blockCols(i);
+
+        for(int r=0; r<rows; r++) {
+            for(int c=0; c<cols; c++) {
+                owner[position[i] + r*colCount + c] = id;
+            }
+        }
+    }
+
+    /*
+     * Checks for equality of this Tray and rvalue.
+     * Returns true iff every Block of rvalue has a Block of the same
+     * dimensions at the same position in this Tray. Note that rvalue may
+     * only specify a subset of this Tray's Blocks (i.e., a goal Tray).
      *
-     * @param rvalue object testing equality with. 
+     * @param rvalue object testing equality with.
      */
     @Override
     public boolean equals(Object rvalue)
 	{
+        if(!(rvalue instanceof Tray)) {
+            return false;
+        }
         Tray desiredTray = (Tray)rvalue;
-        boolean isEqual = true;
-        
-        for(int r=0; r<rowCount; r++) {
-            for(int c=0; c<colCount; c++) { 
-                if(desiredTray.grid[r][c] != EMPTY ) {
-                    try {
-                        boolean isEmpty = grid[r][c] != EMPTY;
-                        Block sourceBlock = getBlock(grid[r][c]);
-                        Block desiredBlock = 
-                            desiredTray.getBlock(desiredTray.grid[r][c]);
-                        
-                        isEqual = 
-                            isEqual 
-                            && isEmpty
-                            && sourceBlock.equals(desiredBlock);
-
-                    } catch (EmptyStackException e) { 
-                        String errorMessage = 
-                            "WARNING: Tried to compare block from desiredTray"
-                            + r 
-                            + " " 
-                            + c 
-                            + ". Couldn't find this block in one of the trays";
-
-                        Solver.dPrint(Solver.ERROR, errorMessage);
-                        return false;
-                    }
-                }
+
+        for(int j=0; j<desiredTray.position.length; j++) {
+            boolean found = false;
+            for(int i=0; i<position.length && !found; i++) {
+                found =
+                    position[i] == desiredTray.position[j]
+                    && blockRows(i) == desiredTray.blockRows(j)
+                    && blockCols(i) == desiredTray.blockCols(j);
+            }
+            if(!found) {
+                return false;
             }
         }
-        return isEqual;
+        return true;
     }
 
     /*
@@ -217,95 +684,157 @@ class Tray implements Iterable<Tray.Block>
     @Override
     public String toString()
     {
-        String outString = "";
-        
+        StringBuilder outString = new StringBuilder();
+
         if(!isOkay()) {
-            Solver.dPrint(Solver.ERROR, "** Tray Corrupted, exiting **");
+            Log.error("** Tray Corrupted, exiting **");
         }
-        
+
         for(int i=0; i<colCount; i++) {
-            outString += "--------";
+            outString.append("--------");
         }
-        outString += "\n";
+        outString.append("\n");
 
         for(int j=0; j<rowCount; j++) {
             for(int i=0; i<colCount; i++) {
-                outString += "| " + (grid[j][i] % 9000) + "\t";
+                outString.append("| " + owner[j*colCount + i] + "\t");
             }
-            outString += "\b|\n";
+            outString.append("\b|\n");
         }
-        
+
         for(int i=0; i<colCount; i++) {
-            outString += "--------";
+            outString.append("--------");
+        }
+        outString.append("\n");
+
+        return outString.toString();
+    }
+
+    /*
+     * Return the Block with the given dense id, the value stored in the
+     * owner grid (index + 1).
+     *
+     * @param id of the Block we're looking up.
+     * @throws EmptyStackException.
+     */
+    public Block getBlock(int id) throws EmptyStackException
+    {
+        if(id > EMPTY && id <= position.length) {
+            return new Block(id - 1);
         }
-        outString += "\n";
-        
-        return outString;
+        Log.warn("Could not find Block id %d. This is probably a bad thing", id);
+        throw new EmptyStackException();
     }
 
     /*
-     * Returns true if we can put Block b at pos [row][col] in the Tray, False 
-     * if not. 
+     * If a block exists at Tray[row][col], return a reference to that Block.
      *
      * @param row number. Origin is top left.
      * @param col number. Origin is top left.
-     * @param b Block to check. 
-     * @throws ArrayIndexOutOfBoundsException if the position is not valid. 
-     * @see Block class. 
-     */
-    private boolean canMoveHere(int row, int col, Block b) 
-            throws ArrayIndexOutOfBoundsException 
-    {
-        boolean valid = true;
-        
-        for(int r=0; r<b.getNumRows(); r++) {
-            for(int c=0; c<b.getNumCols(); c++) {
-                boolean cond1 = grid[row + r][col + c] != EMPTY;
-                boolean cond2 = grid[row + r][col + c] != b.getId();
-                valid = cond1 && cond2 ? false : valid;
-            }
-        }
-        return valid;
+     * @throws EmptyStackException if the cell is empty.
+     */
+    public Block getBlock(int row, int col) throws EmptyStackException
+    {
+        return getBlock(owner[row*colCount + col]);
     }
 
     /*
-     * If a block exists at Tray[row][col], return a reference to that Block. 
+     * Return Block number index of this Tray.
      *
-     * @param id of the Block we're looking up.
-     * @throws EmptyStackException. 
-     */ 
-    public Block getBlock(int id) throws EmptyStackException 
+     * @param index of the Block, between 0 and numBlocks().
+     */
+    public Block block(int index)
+    {
+        return new Block(index);
+    }
+
+    /*
+     * Output a sequence of moves starting from this Tray, one cell per line
+     * in the form "row col newRow newCol", so a slide prints a line for
+     * every cell it crosses. The moves are replayed on a copy, so this Tray
+     * is left unchanged. The caller owns (and flushes) out.
+     * Returns the number of lines written.
+     *
+     * @param moves move codes, each legal in the Tray left by the ones
+     * before it.
+     * @param out Writer to print to.
+     * @throws IOException if out fails.
+     */
+    public int writeMoves(int[] moves, Writer out) throws IOException
     {
-        for(Block b : db) {
-            if(b.getId() == id) {
-                return b;
+        Tray replay = new Tray(this);
+        int lines = 0;
+
+        for(int move : moves) {
+            int from = replay.position[moveBlockIndex(move)];
+            for(int leg=0; leg<2; leg++) {
+                int d = leg == 0 ? moveDirection(move) : turnDirection(move);
+                int length = leg == 0 ? legLength(move) : turnLength(move);
+                for(int k=0; k<length; k++, lines++) {
+                    int to = from + step(d);
+                    out.write(Integer.toString(from / colCount));
+                    out.write(' ');
+                    out.write(Integer.toString(from % colCount));
+                    out.write(' ');
+                    out.write(Integer.toString(to / colCount));
+                    out.write(' ');
+                    out.write(Integer.toString(to % colCount));
+                    out.write('\n');
+                    from = to;
+                }
             }
+            replay.applyMove(move);
         }
-        String errorMessage = 
-            "Could not find Block id " 
-            + id 
-            + ". This is probably a bad thing";
+        return lines;
+    }
 
-        Solver.dPrint(Solver.WARN, errorMessage);
-        throw new EmptyStackException();
+    /*
+     * Return the cell of the top left corner of the Block that each move
+     * steps, replaying the moves on a copy of this Tray. With the path of
+     * each move, this names the moves without Block indices.
+     *
+     * @param moves move codes, each legal in the Tray left by the ones
+     * before it.
+     */
+    public int[] moveCells(int[] moves)
+    {
+        Tray replay = new Tray(this);
+        int[] cells = new int[moves.length];
+
+        for(int m=0; m<moves.length; m++) {
+            cells[m] = replay.position[moveBlockIndex(moves[m])];
+            replay.applyMove(moves[m]);
+        }
+        return cells;
     }
-    
+
     /*
-     * Output the sequence of changes made to the current Tray since the
-     * original Tray was created.
+     * Return the code of the move taking the Block whose top left corner is
+     * at cell along path, or NO_MOVE if there is no such Block or the move
+     * is not one of legalMoves().
+     *
+     * @param cell packed cell index r*colCount + c.
+     * @param path a move code without its Block index, see movePath().
      */
-    public void changeLog()
-	{
-        Stack<String> history = new Stack<String>();
-        Tray dummy = new Tray(this);
-        
-        while(dummy != null) {
-            history.push(dummy.changeFromPrevious);
-            dummy = dummy.previousTray;
+    public int moveAt(int cell, int path)
+    {
+        if(cell < 0 || cell >= owner.length || owner[cell] == EMPTY
+                || movePath(path) != path) {
+            return NO_MOVE;
+        }
+        int i = owner[cell] - 1;
+        int move = path | i << 2;
+        int[] moves = new int[maxMoves()];
+
+        if(position[i] != cell) {
+            return NO_MOVE;
         }
-        while(history.size() > 0) {
-            Solver.dPrint(Solver.SPECIAL, history.pop());
+        for(int m = legalMoves(moves) - 1; m >= 0; m--) {
+            if(moves[m] == move) {
+                return move;
+            }
         }
+        return NO_MOVE;
     }
 
     /*
@@ -315,46 +844,338 @@ class Tray implements Iterable<Tray.Block>
      * @param direction. Valid directions "u", "d", "l", "r".
      * @returns a new Tray object as a copy of the current object except the
      * desired Block has been moved in this new configuration by one space in
-     * the desired direction. If the move is not allowed, return null.
+     * the desired direction. If the move is not allowed, return null. Note
+     * that the moved Block may have a different index in the new Tray, since
+     * same shaped Blocks are kept sorted by position.
      */ 
     public Tray moveBlock(Block b, String direction)
 	{
-        int AMT = 1;
-        int col_scale = 0;
-        int row_scale = 0;
-        int block_row  = b.getr();
-        int block_col = b.getc();
+        int d = Arrays.asList(DIRECTIONS).indexOf(direction);
+
+        if(d < 0 || !canStep(b.index, d)) {
+            return null;
+        }
+        return moveBlock(move(b.index, d));
+    }
+
+    /*
+     * Apply a legal move to a copy of this Tray.
+     *
+     * @param move a move code, as produced by legalMoves().
+     * @returns a new Tray object with the move applied.
+     */
+    public Tray moveBlock(int move)
+    {
         Tray newTray = new Tray(this);
 
-        switch (direction) {
-            case "u":       row_scale = -AMT;
-                            break;
-            case "d":       row_scale = AMT;
-                            break;
-            case "l":       col_scale = -AMT;
-                            break;
-            case "r":       col_scale = AMT;
+        newTray.applyMove(move);
+        return newTray;
+    }
+
+    /*
+     * Apply a legal move to this Tray in place, without allocating.
+     * Returns the move code that undoes it, to be passed to undoMove().
+     *
+     * @param move a move code, as produced by legalMoves().
+     */
+    public int applyMove(int move)
+    {
+        int i = moveBlockIndex(move);
+        int d = moveDirection(move), length = legLength(move);
+        int turn = turnDirection(move), turnLength = turnLength(move);
+
+        i = place(i, position[i] + length*step(d) + turnLength*step(turn));
+        return turnLength == 0 ? slide(i, d ^ 1, length)
+            : turn(i, turn ^ 1, turnLength, d ^ 1, length);
+    }
+
+    /*
+     * Take back a move made with applyMove().
+     *
+     * @param undo the move code returned by applyMove().
+     */
+    public void undoMove(int undo)
+    {
+        applyMove(undo);
+    }
+
+    /*
+     * Return the move code of moving Block i one cell in direction d.
+     *
+     * A move code packs, from the low bits up: the direction of the move
+     * (2 bits), the index of the Block (16 bits), the length of the slide
+     * less one (6 bits), and for a slide that turns a corner the direction
+     * (2 bits) and length (6 bits) of the leg after the turn, 0 if none.
+     * A single cell move is thus i << 2 | d.
+     */
+    static int move(int i, int d)
+    {
+        return i << 2 | d;
+    }
+
+    /*
+     * Return the move code of sliding Block i length cells in direction d.
+     */
+    static int slide(int i, int d, int length)
+    {
+        return move(i, d) | (length - 1) << 18;
+    }
+
+    /*
+     * Return the move code of sliding Block i length cells in direction d,
+     * then turnLength cells in direction turn.
+     */
+    static int turn(int i, int d, int length, int turn, int turnLength)
+    {
+        return slide(i, d, length) | turn << 24 | turnLength << 26;
+    }
+
+    /*
+     * Return the index of the Block moved by a move code.
+     */
+    static int moveBlockIndex(int move)
+    {
+        return move >>> 2 & 0xFFFF;
+    }
+
+    /*
+     * Return the direction code of a move code.
+     */
+    static int moveDirection(int move)
+    {
+        return move & 3;
+    }
+
+    /*
+     * Return the number of cells a move code goes in moveDirection().
+     */
+    static int legLength(int move)
+    {
+        return (move >>> 18 & 63) + 1;
+    }
+
+    /*
+     * Return the direction of the leg after the turn of a move code.
+     */
+    static int turnDirection(int move)
+    {
+        return move >>> 24 & 3;
+    }
+
+    /*
+     * Return the number of cells a move code goes after its turn, 0 if it
+     * does not turn.
+     */
+    static int turnLength(int move)
+    {
+        return move >>> 26;
+    }
+
+    /*
+     * Return a move code without its Block index: the path the Block takes,
+     * whichever Block it is.
+     */
+    static int movePath(int move)
+    {
+        return move & ~(0xFFFF << 2);
+    }
+
+    /*
+     * Return the offset of the cell next to a cell in direction d.
+     */
+    private int step(int d)
+    {
+        return ROW_STEP[d]*colCount + COL_STEP[d];
+    }
+
+    /*
+     * Return the largest number of moves legalMoves() can produce. A Block
+     * can slide to at most as many cells as lie in line with it, and with
+     * turns to at most as many as it fits in.
+     */
+    public int maxMoves()
+    {
+        if(moveMode == STEPS) {
+            return 4 * position.length;
         }
+        int max = 0;
 
-        try {
-            if(!canMoveHere(block_row + row_scale, block_col + col_scale, b)) 
-                return null;
-        } catch (ArrayIndexOutOfBoundsException e) {
-            return null;
+        for(int i=0; i<position.length; i++) {
+            int rows = rowCount - blockRows(i), cols = colCount - blockCols(i);
+            max += moveMode == SLIDES ? rows + cols : (rows + 1)*(cols + 1) - 1;
         }
+        return max;
+    }
 
-        newTray.changeFromPrevious = "" + b.getr() + " " + b.getc() + " " 
-            + (b.getr() + row_scale) + " " + (b.getc() + col_scale);
+    /*
+     * Write the code of every legal move of this Tray to out and return how
+     * many there are. Rather than trying every Block in every direction,
+     * this walks the empty cells: a Block can only move in direction d if
+     * an empty cell lies next to it on that side. Each move is produced
+     * once, from the empty cell in line with the Block's top left corner.
+     *
+     * @param out array of at least maxMoves() ints.
+     */
+    public int legalMoves(int[] out)
+    {
+        return legalMoves(out, 0);
+    }
 
-        newTray.setPreviousTray(this);
-        newTray.getBlock(b.getId()).setCoordinates(block_row+row_scale, 
-            block_col+col_scale);
-        newTray.isOkay();
-        return newTray;
+    /*
+     * Write the code of every legal move of this Tray to out, starting at
+     * offset, and return how many there are.
+     *
+     * @param out array with room for maxMoves() ints after offset.
+     * @param offset index of the first move to write.
+     */
+    public int legalMoves(int[] out, int offset)
+    {
+        if(moveMode != STEPS) {
+            return slides(out, offset);
+        }
+        int cells = rowCount*colCount;
+        int count = offset;
+
+        for(int w=0; w<occupied.length; w++) {
+            long free = ~occupied[w];
+            if(w == occupied.length - 1 && (cells & 63) != 0) {
+                free &= (1L << cells) - 1;
+            }
+            while(free != 0) {
+                int empty = (w << 6) + Long.numberOfTrailingZeros(free);
+                int row = empty / colCount;
+                int col = empty % colCount;
+                free &= free - 1;
+
+                for(int d=0; d<4; d++) {
+                    int fromRow = row - ROW_STEP[d];
+                    int fromCol = col - COL_STEP[d];
+                    if(fromRow < 0 || fromRow >= rowCount 
+                            || fromCol < 0 || fromCol >= colCount
+                            || !isOccupied(fromRow*colCount + fromCol)) {
+                        continue;
+                    }
+                    int i = owner[fromRow*colCount + fromCol] - 1;
+                    boolean inLine = d == UP || d == DOWN 
+                        ? position[i] % colCount == col
+                        : position[i] / colCount == row;
+                    if(inLine && canStep(i, d)) {
+                        out[count++] = move(i, d);
+                    }
+                }
+            }
+        }
+        return count - offset;
+    }
+
+    /*
+     * legalMoves() of the SLIDES and TURNS modes. Each Block is walked out
+     * from its cell in every direction for as long as it fits, one move per
+     * cell of the way, and in TURNS mode off to both sides of each of those
+     * cells. The cells a Block passes through are free in the Tray, since a
+     * Block never walks back over itself. Two paths of a Block can lead to
+     * the same cell, so the cells reached are stamped and produce one move.
+     *
+     * @param out array with room for maxMoves() ints after offset.
+     * @param offset index of the first move to write.
+     */
+    private int slides(int[] out, int offset)
+    {
+        int count = offset;
+
+        if(reached == null) {
+            reached = new int[rowCount*colCount];
+        }
+        for(int i=0; i<position.length; i++) {
+            if(++stamp == 0) {
+                Arrays.fill(reached, 0);
+                stamp = 1;
+            }
+            reached[position[i]] = stamp;
+            for(int d=0; d<4; d++) {
+                int cell = position[i];
+                for(int length=1; length<=MAX_LEG && canStep(i, cell, d); length++) {
+                    cell += step(d);
+                    if(reached[cell] != stamp) {
+                        reached[cell] = stamp;
+                        out[count++] = slide(i, d, length);
+                    }
+                    for(int turn = d < LEFT ? LEFT : UP, end = turn + 2;
+                            moveMode == TURNS && length <= MAX_TURN && turn < end;
+                            turn++) {
+                        int corner = cell;
+                        for(int turnLength=1; turnLength<=MAX_TURN
+                                && canStep(i, corner, turn); turnLength++) {
+                            corner += step(turn);
+                            if(reached[corner] != stamp) {
+                                reached[corner] = stamp;
+                                out[count++] = turn(i, d, length, turn, turnLength);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return count - offset;
     }
 
     /*
-     * Implements the Iterable interface. 
+     * Returns true if Block i can move one cell in direction d, by checking
+     * only the row or column of cells it would move into.
+     *
+     * @param i index of the Block.
+     * @param d direction code.
+     */
+    private boolean canStep(int i, int d)
+    {
+        return canStep(i, position[i], d);
+    }
+
+    /*
+     * Returns true if Block i, were its top left corner at cell, could move
+     * one cell in direction d. The cells of Block i itself count as taken.
+     *
+     * @param i index of the Block.
+     * @param cell packed cell index of the corner.
+     * @param d direction code.
+     */
+    private boolean canStep(int i, int cell, int d)
+    {
+        int row = cell / colCount;
+        int col = cell % colCount;
+        int first, stride, length;
+
+        switch (d) {
+            case UP:    if(row == 0) return false;
+                        first = cell - colCount;
+                        stride = 1;
+                        length = blockCols(i);
+                        break;
+            case DOWN:  if(row + blockRows(i) == rowCount) return false;
+                        first = cell + blockRows(i)*colCount;
+                        stride = 1;
+                        length = blockCols(i);
+                        break;
+            case LEFT:  if(col == 0) return false;
+                        first = cell - 1;
+                        stride = colCount;
+                        length = blockRows(i);
+                        break;
+            default:    if(col + blockCols(i) == colCount) return false;
+                        first = cell + blockCols(i);
+                        stride = colCount;
+                        length = blockRows(i);
+        }
+        for(int k=0; k<length; k++) {
+            if(isOccupied(first + k*stride)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Implements the Iterable interface.
      * Return a Tray.Iterator
      */
     @Override
@@ -368,22 +1189,21 @@ class Tray implements Iterable<Tray.Block>
      */
     class TrayIterator implements Iterator<Block>
     {
-        private Iterator databaseIter;
-        
+        private int next = 0;
+
         TrayIterator(Tray inTray) {
-            databaseIter = inTray.db.iterator(); 
-        }   
+        }
 
         @Override
         public boolean hasNext()
 	    {
-            return databaseIter.hasNext();
+            return next < position.length;
         }
 
         @Override
         public Block next()
 	    {
-            return (Block)databaseIter.next();
+            return new Block(next++);
         }
 
         @Override
@@ -393,139 +1213,170 @@ class Tray implements Iterable<Tray.Block>
     }
 
     /*
-     * The Block class. Inner class used by the Tray class. 
-     * This class implements the Blocks that will populate the game tray. 
-     * @see Tray for further documentation.
+     * The Shapes table. The part of a Tray that never changes once it has
+     * been read in, stored as parallel arrays and shared by every Tray
+     * copied from it. Blocks are sorted by shape, so each shape class is the
+     * contiguous range of indices first[s] (inclusive) to last[s] (exclusive).
      */
-    class Block
+    private static final class Shapes
     {
-        private final int id;
-        private int rowCount, colCount, col_pos, row_pos;
-    
+        final int[] shapeOf;
+        final int[] rows, cols;
+        final int[] first, last;
+        final long[][] zobrist;
+
         /*
-         * The Block class constructor. 
-         * POSTCONDITION: A new l by w sized Block created at position col, row
-         *  Note that the initial position determins the GUID for this Block and
-         *  all Blocks copied from it. 
+         * Constructor.
          *
-         * @param rows number of rows this Block occupies on the Tray.
-         * @param cols number of columns this Block occupies on the Tray.
-         * @param row location.
-         * @param col location. 
+         * @param blocks {rows, cols, row, col} of each Block, sorted by shape.
+         * @param cells number of cells in the Tray.
          */
-        public Block(int rows, int cols, int row, int col)
-	    {
-            rowCount = rows;
-            colCount = cols;
-            row_pos = row;
-            col_pos = col;
-            id = row + 257*col + rows % 31;
+        Shapes(List<int[]> blocks, int cells)
+        {
+            int count = 0;
+
+            shapeOf = new int[blocks.size()];
+            for(int i=0; i<blocks.size(); i++) {
+                boolean sameShape = i > 0
+                    && blocks.get(i)[0] == blocks.get(i-1)[0]
+                    && blocks.get(i)[1] == blocks.get(i-1)[1];
+                if(!sameShape) {
+                    count++;
+                }
+                shapeOf[i] = count - 1;
+            }
+
+            rows = new int[count];
+            cols = new int[count];
+            first = new int[count];
+            last = new int[count];
+            zobrist = new long[count][cells];
+            for(int i=blocks.size()-1; i>=0; i--) {
+                int s = shapeOf[i];
+                rows[s] = blocks.get(i)[0];
+                cols[s] = blocks.get(i)[1];
+                first[s] = i;
+                last[s] = Math.max(last[s], i + 1);
+            }
+            for(int s=0; s<count; s++) {
+                long seed = ((long)rows[s] << 40) ^ ((long)cols[s] << 20);
+                for(int cell=0; cell<cells; cell++) {
+                    zobrist[s][cell] = mix(seed + cell);
+                }
+            }
         }
-        
+    }
+
+    /*
+     * The Block class. Inner class used by the Tray class.
+     * A Block is a lightweight view of one entry of the owning Tray's
+     * position array, so reading it always reflects the Tray's current state.
+     * @see Tray for further documentation.
+     */
+    class Block
+    {
+        private final int index;
+
         /*
-         * Copy constructor.
-         * Note that the GUID will remain unchaned from the original block. This
-         * is by design. 
+         * The Block class constructor.
+         * POSTCONDITION: A view of Block number index of the enclosing Tray.
          *
-         * @param source Block to copy. 
+         * @param index of the Block in the enclosing Tray.
          */
-        public Block(Block source)
+        Block(int index)
 	    {
-            rowCount = source.rowCount;
-            colCount = source.colCount;
-            id = source.id;
-            row_pos = source.row_pos;
-            col_pos = source.col_pos;
+            this.index = index;
         }
-        
+
         /*
-         * The Block's hashCode() function. Note that the id serves as the 
-         *  Block's GUID in the Tray and it's datastructures. As such, we 
-         *  only need to compute the hashCode() once for each Block and never
-         *  again. It should remain static throughout the program execution. 
-         *  There is also a small performance benefit from not computing it 
-         *  again unnecessarily. 
+         * The Block's hashCode() function. Note that the id serves as the
+         *  Block's GUID in the Tray and it's datastructures. The id is the
+         *  dense index + 1 stored in the Tray's owner grid.
          */
         @Override
         public int hashCode()
 	    {
-            return id; 
+            return getId();
         }
 
         /*
          * Test two Blocks for equality. Equality in this case means that they
-         *  are the same dimensions and same spacial orientation (i.e., 
+         *  are the same dimensions and same spacial orientation (i.e.,
          *  a 2x1 is NOT equal to a 1x2. Note that the symantics of the equals
-         *  method does NOT agree with the hashCode() method and so this should 
-         *  not be relied upon here. 
+         *  method does NOT agree with the hashCode() method and so this should
+         *  not be relied upon here.
          *
-         * @param other Object to check for equality against. 
+         * @param other Object to check for equality against.
          */
         @Override
-        public boolean equals(Object other)    
+        public boolean equals(Object other)
         {
+            if(!(other instanceof Block)) {
+                return false;
+            }
             Block compareBlock = (Block) other;
-            Solver.dPrint(
-                Solver.DEBUG, 
-                "Checking for equality of Block " 
-                + this 
-                + " and " 
-                + other 
-                + ": " 
-                + (this.toString().equals(other.toString()) ? "true" : "false")
-            );
-            return this.toString().equals(other.toString());
+            return getNumRows() == compareBlock.getNumRows()
+                && getNumCols() == compareBlock.getNumCols();
         }
 
         /*
          * Return the number of columns this Block spans.
          */
         public int getNumCols()
-	    { 
-            return colCount; 
+	    {
+            return blockCols(index);
         }
 
         /*
          * Return the number of rows this Block spans.
          */
         public int getNumRows()
-	    { 
-            return rowCount; 
+	    {
+            return blockRows(index);
         }
 
         /*
          * Return the row position of this Block.
          */
         public int getr()
-	    { 
-            return row_pos; 
+	    {
+            return position[index] / colCount;
         }
 
         /*
          * Return the column position of this Block.
          */
         public int getc()
-	    { 
-            return col_pos; 
+	    {
+            return position[index] % colCount;
         }
 
         /*
-         * Move this Block to the position given.
+         * Move this Block to the position given. Afterwards this view refers
+         * to whichever Block of the same shape takes its index.
          *
          * @param r row position.
          * @param c column position.
          */
         public void setCoordinates(int r, int c)
-	    { 
-            row_pos = r; col_pos = c; 
+	    {
+            place(index, r*colCount + c);
+        }
+
+        /*
+         * Return the index of this Block in its Tray.
+         */
+        public int getIndex()
+        {
+            return index;
         }
 
         /*
          * Return this Block's GUID.
          */
         private int getId()
-	    { 
-            return id; 
+	    {
+            return index + 1;
         }
 
         /*
@@ -533,8 +1384,8 @@ class Tray implements Iterable<Tray.Block>
          */
         @Override
         public String toString()
-	    { 
-            return "a " + rowCount + "x" + colCount + " block"; 
+	    {
+            return "a " + getNumRows() + "x" + getNumCols() + " block";
         }
-    } // End of the Block inner class. 
+    } // End of the Block inner class.
 } // End of the ray class